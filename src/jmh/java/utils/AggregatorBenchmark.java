@@ -0,0 +1,117 @@
+// AggregatorBenchmark.java
+
+/* Compares summarizing a sheet with a DataPilot created inside Calc
+   against reading the data and aggregating it with Aggregator, then
+   writing the pivot-shaped result back in one block.
+
+   Both produce the sum of Sales by Region (rows) and Year (columns)
+   on a second sheet. Needs a local office.
+
+   Run with:  gradlew jmh
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.sun.star.beans.*;
+import com.sun.star.container.*;
+import com.sun.star.frame.*;
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AggregatorBenchmark
+{
+  private static final String[] HEADERS = { "Region", "Product", "Year", "Sales" };
+  private static final String PILOT_NAME = "benchPilot";
+
+  @Param({"10000", "100000", "500000"})
+  public int numRows;
+
+  private XSpreadsheetDocument doc;
+  private XSpreadsheet dataSheet, outSheet;
+
+
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    XComponentLoader loader = Lo.loadOffice();
+    doc = Calc.createDoc(loader);
+    dataSheet = Calc.getSheet(doc, 0);
+    outSheet = Calc.insertSheet(doc, "Summary", (short) 1);
+
+    Object[][] vals = new Object[numRows+1][];
+    vals[0] = HEADERS;
+    Random rand = new Random(42);
+    for (int r = 1; r <= numRows; r++)
+      vals[r] = new Object[] { "region " + rand.nextInt(20), 
+                               "product " + rand.nextInt(500),
+                               (double) (2000 + rand.nextInt(20)),
+                               Math.round(rand.nextDouble()*100000)/100.0 };
+    Calc.setArray(dataSheet, "A1", vals);
+  }  // end of setup()
+
+
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    Lo.closeDoc(doc);
+    Lo.closeOffice();
+  }
+
+
+
+  @Benchmark
+  public Object[][] aggregator()
+  {
+    Aggregator agg = new Aggregator(dataSheet);
+    agg.groupBy("Region").pivotBy("Year").add("Sales", Aggregator.SUM);
+    Object[][] table = agg.run();
+    agg.writeTo(outSheet, 0, 0);
+    return table;
+  }  // end of aggregator()
+
+
+
+  @Benchmark
+  public void dataPilot() throws com.sun.star.uno.Exception
+  {
+    XDataPilotTables dpTables = Calc.getPilotTables(outSheet);
+    XDataPilotDescriptor desc = dpTables.createDataPilotDescriptor();
+    desc.setSourceRange( Calc.getAddress( Calc.findUsedRange(dataSheet)));
+
+    XIndexAccess fields = desc.getDataPilotFields();
+    setField(fields, 0, DataPilotFieldOrientation.ROW, null);      // Region
+    setField(fields, 2, DataPilotFieldOrientation.COLUMN, null);   // Year
+    setField(fields, 3, DataPilotFieldOrientation.DATA, GeneralFunction.SUM);  // Sales
+
+    dpTables.insertNewByName(PILOT_NAME, new CellAddress((short) 1, 0, 0), desc);
+    dpTables.removeByName(PILOT_NAME);
+  }  // end of dataPilot()
+
+
+
+  private static void setField(XIndexAccess fields, int idx, 
+                    DataPilotFieldOrientation orient, GeneralFunction fn)
+                                        throws com.sun.star.uno.Exception
+  {
+    XPropertySet props = Lo.qi(XPropertySet.class, fields.getByIndex(idx));
+    Props.setProperty(props, "Orientation", orient);
+    if (fn != null)
+      Props.setProperty(props, "Function", fn);
+  }  // end of setField()
+
+}  // end of AggregatorBenchmark class
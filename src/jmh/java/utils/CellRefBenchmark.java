@@ -0,0 +1,112 @@
+// CellRefBenchmark.java
+
+/* Compares the regex-based cell name parsing previously used by
+   Calc.getCellPosition() with CellRef.parse(), and the old column
+   name builder with CellRef.columnName().
+
+   Run with:  gradlew jmh
+*/
+
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellRefBenchmark
+{
+  private String[] names;
+  private int[] columns;
+
+
+  @Setup
+  public void setup()
+  {
+    names = new String[1000];
+    columns = new int[names.length];
+    for (int i = 0; i < names.length; i++) {
+      columns[i] = (i*37) % 1024;
+      names[i] = CellRef.name(columns[i], i*13);
+    }
+  }  // end of setup()
+
+
+
+  @Benchmark
+  public void regexParse(Blackhole bh)
+  {
+    for (String nm : names)
+      bh.consume( regexCellPosition(nm) );
+  }
+
+  @Benchmark
+  public void cellRefParse(Blackhole bh)
+  {
+    for (String nm : names)
+      bh.consume( CellRef.parse(nm) );
+  }
+
+  @Benchmark
+  public void cellRefParsePoint(Blackhole bh)
+  // includes the Point created by Calc.getCellPosition()
+  {
+    for (String nm : names)
+      bh.consume( Calc.getCellPosition(nm) );
+  }
+
+
+
+  @Benchmark
+  public void oldColumnName(Blackhole bh)
+  {
+    for (int col : columns)
+      bh.consume( oldColumnNumberStr(col) );
+  }
+
+  @Benchmark
+  public void cellRefColumnName(Blackhole bh)
+  {
+    for (int col : columns)
+      bh.consume( CellRef.columnName(col) );
+  }
+
+
+
+  // ------------- the previous implementations --------------
+
+
+  private static java.awt.Point regexCellPosition(String cellName)
+  {
+    Pattern p = Pattern.compile( "([a-zA-Z]+)([0-9]+)" );
+    Matcher m = p.matcher(cellName);
+    if (m.matches()) {
+      int nColumn = Calc.columnStringToNumber( m.group(1).toUpperCase() );
+      int nRow = Calc.rowStringToNumber(m.group(2));
+      return new java.awt.Point(nColumn, nRow);
+    }
+    else
+      return null;
+  }  // end of regexCellPosition()
+
+
+  private static String oldColumnNumberStr(int nColumn)
+  {
+    String colStr = "";
+    while (nColumn >= 0) {
+      colStr += (char) ('A' + nColumn%26);
+      nColumn =  nColumn/26 - 1;
+    }
+    return colStr;
+  }  // end of oldColumnNumberStr()
+
+}  // end of CellRefBenchmark class
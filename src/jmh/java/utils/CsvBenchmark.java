@@ -0,0 +1,171 @@
+// CsvBenchmark.java
+
+/* Compares moving CSV data through office's CSV filter 
+   (Calc.importCsv()/exportCsv()) with parsing/writing the CSV in Java
+   and sending the cells as an array (Calc.setArray()/getArray()).
+
+   Needs a local office; each iteration imports or exports one file
+   of numRows rows.
+
+   Run with:  gradlew jmh
+*/
+
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.sun.star.frame.*;
+import com.sun.star.sheet.*;
+
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvBenchmark
+{
+  private static final int NUM_COLS = 8;
+
+  @Param({"1000", "10000", "100000"})
+  public int numRows;
+
+  private XComponentLoader loader;
+  private File csvFile, outFile;
+  private XSpreadsheetDocument srcDoc;     // holds the data, for exporting
+
+
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException
+  {
+    loader = Lo.loadOffice();
+    csvFile = File.createTempFile("bench", ".csv");
+    outFile = File.createTempFile("benchOut", ".csv");
+
+    BufferedWriter w = new BufferedWriter( new OutputStreamWriter(
+                   new FileOutputStream(csvFile), StandardCharsets.UTF_8));
+    Random rand = new Random(42);
+    for (int r = 0; r < numRows; r++) {
+      for (int c = 0; c < NUM_COLS; c++) {
+        if (c > 0)
+          w.write(',');
+        if (c == 0)
+          w.write("\"item " + (r % 500) + "\"");
+        else
+          w.write( Double.toString(Math.round(rand.nextDouble()*100000)/100.0));
+      }
+      w.newLine();
+    }
+    w.close();
+
+    srcDoc = Calc.importCsv(csvFile.getAbsolutePath(), loader);
+  }  // end of setup()
+
+
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    Lo.closeDoc(srcDoc);
+    Lo.closeOffice();
+    csvFile.delete();
+    outFile.delete();
+  }
+
+
+
+  // ---------------------------- import ------------------------------
+
+
+  @Benchmark
+  public void importFilter()
+  {
+    XSpreadsheetDocument doc = Calc.importCsv(csvFile.getAbsolutePath(), loader);
+    Lo.closeDoc(doc);
+  }
+
+
+  @Benchmark
+  public void importArray() throws IOException
+  {
+    Object[][] vals = readCsv(csvFile);
+    XSpreadsheetDocument doc = Calc.createDoc(loader);
+    Calc.setArray(Calc.getSheet(doc, 0), "A1", vals);
+    Lo.closeDoc(doc);
+  }
+
+
+
+  // ---------------------------- export ------------------------------
+
+
+  @Benchmark
+  public void exportFilter()
+  {  Calc.exportCsv(srcDoc, outFile.getAbsolutePath());  }
+
+
+  @Benchmark
+  public void exportArray() throws IOException
+  {
+    XSpreadsheet sheet = Calc.getSheet(srcDoc, 0);
+    Object[][] vals = Calc.getArray(sheet, 
+                     Calc.getRangeStr(0, 0, NUM_COLS-1, numRows-1));
+    writeCsv(outFile, vals);
+  }
+
+
+
+  // ------------------- Java CSV reading/writing -----------------------
+
+
+  private static Object[][] readCsv(File f) throws IOException
+  // a simple parser: no quoted separators or newlines
+  {
+    ArrayList<Object[]> rows = new ArrayList<Object[]>();
+    BufferedReader br = new BufferedReader( new InputStreamReader(
+                            new FileInputStream(f), StandardCharsets.UTF_8));
+    String line;
+    while ((line = br.readLine()) != null) {
+      String[] toks = line.split(",");
+      Object[] row = new Object[toks.length];
+      for (int i = 0; i < toks.length; i++) {
+        if (toks[i].startsWith("\""))
+          row[i] = toks[i].substring(1, toks[i].length()-1);
+        else
+          row[i] = Double.parseDouble(toks[i]);
+      }
+      rows.add(row);
+    }
+    br.close();
+    return rows.toArray(new Object[rows.size()][]);
+  }  // end of readCsv()
+
+
+
+  private static void writeCsv(File f, Object[][] vals) throws IOException
+  {
+    BufferedWriter w = new BufferedWriter( new OutputStreamWriter(
+                            new FileOutputStream(f), StandardCharsets.UTF_8));
+    for (Object[] row : vals) {
+      for (int c = 0; c < row.length; c++) {
+        if (c > 0)
+          w.write(',');
+        if (row[c] instanceof String)
+          w.write("\"" + row[c] + "\"");
+        else
+          w.write(row[c].toString());
+      }
+      w.newLine();
+    }
+    w.close();
+  }  // end of writeCsv()
+
+}  // end of CsvBenchmark class
@@ -2,6 +2,7 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
 
 import com.sun.star.table.CellAddress;
 import com.sun.star.table.CellRangeAddress;
@@ -27,9 +28,9 @@ import com.sun.star.lang.XComponent;
 
 import com.sun.star.bridge.XBridgeFactory;
 import com.sun.star.bridge.XBridge;
-import utils.Calc;
-import utils.Info;
-import utils.Lo;
+import utils.CellChange;
+import utils.SheetChangeFeed;
+import utils.SheetChangeListener;
 
 
 public class ConnectionAwareClient extends java.awt.Frame
@@ -110,37 +111,18 @@ public class ConnectionAwareClient extends java.awt.Frame
 			return;
 		}
 
-        XModifyBroadcaster cells = UnoRuntime.queryInterface(XModifyBroadcaster.class, sheet);
-        XModifyListener modifyListener = new XModifyListener() {
-			
-			@Override
-			public void disposing(EventObject event) {
-				// TODO Auto-generated method stub
-			}
-			
-			@Override
-			public void modified(EventObject event) {
-				XSpreadsheet sheet2 = Lo.qi(XSpreadsheet.class, event.Source);
-                CellRangeAddress addr = Calc.getSelectedAddr(sheetDoc);
-
-                // pretty prints
-                System.out.println("  " + Calc.getRangeStr(addr));
-                System.out.println(addr.StartRow + ", " + addr.EndRow);
-                System.out.println(addr.StartColumn + ", " + addr.EndColumn);
-                for (int x = addr.StartRow; x <= addr.EndRow; x++) {
-            		System.out.print(" | ");
-                	for (int y = addr.StartColumn; y <= addr.EndColumn; y++) {
-                		System.out.print(Calc.getString(sheet2, y, x));
-                		System.out.print(" | ");
-                	}
-                	System.out.println();
-                }
+        // report changed cells in batches, rather than re-reading the selection
+        SheetChangeFeed feed = new SheetChangeFeed(sheet, sheetDoc);
+        feed.addListener(new SheetChangeListener() {
 
-                Calc.printAddress(addr);
-                Calc.printAddress(Calc.findUsedRange(sheet2));
+			@Override
+			public void changed(List<CellChange> changes) {
+                System.out.println(changes.size() + " cells changed");
+                for (CellChange change : changes)
+                    System.out.println("  " + change);
 			}
-		};
-        cells.addModifyListener(modifyListener);
+		});
+        feed.start();
     }
 
     /** separates the uno-url into 3 different parts.
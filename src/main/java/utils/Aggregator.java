@@ -0,0 +1,621 @@
+// Aggregator.java
+
+/* Group-by summaries (like a DataPilot/pivot table) calculated in
+   Java. The source range (with a header row) is read in blocks of
+   rows with one getDataArray() call each; the grouping and the sums,
+   averages, counts, minimums, maximums and percentiles are then
+   calculated locally, split between threads with fork/join.
+
+   The result is a table shaped like a DataPilot's output: a header
+   row, one row per group of the row fields, and a "Total Result" row.
+   If there is a column (pivot) field, each of its values gets its own
+   column(s). The table can be written back to a sheet in one block.
+
+   Only the key and measure columns are read. Group values keep their
+   cell types, so the text "2000" and the number 2000 are different
+   groups. Only numeric cells are aggregated; COUNT is the number of
+   numeric cells in a group.
+
+   Typical use:
+     Aggregator agg = new Aggregator(sheet);
+     agg.groupBy("Region").pivotBy("Year")
+        .add("Sales", Aggregator.SUM)
+        .add("Sales", Aggregator.PERCENTILE, 90);
+     Object[][] table = agg.run();
+     agg.writeTo(outSheet, 0, 0);
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class Aggregator
+{
+  // aggregate functions
+  public static final int SUM = 0;
+  public static final int AVERAGE = 1;
+  public static final int COUNT = 2;
+  public static final int MIN = 3;
+  public static final int MAX = 4;
+  public static final int PERCENTILE = 5;
+
+  private static final String[] FN_NAMES = 
+             { "Sum", "Average", "Count", "Min", "Max", "Percentile" };
+
+  // rows per fork/join task
+  private static final int TASK_ROWS = 50000;
+
+  private final XSpreadsheet sheet;
+  private final CellRangeAddress source;    // includes the header row
+  private final String[] headers;
+
+  private final ArrayList<Integer> rowFields = new ArrayList<Integer>();
+  private int pivotField = -1;
+  private final ArrayList<Integer> measureCols = new ArrayList<Integer>();
+  private final ArrayList<Integer> measureFns = new ArrayList<Integer>();
+  private final ArrayList<Double> measurePercents = new ArrayList<Double>();
+
+  private Object[][] table = null;    // the last result
+
+
+
+  public Aggregator(XSpreadsheet sheet)
+  {  this(sheet, Calc.getAddress( Calc.findUsedRange(sheet)));  }
+
+
+  public Aggregator(XSpreadsheet sheet, CellRangeAddress source)
+  {
+    this.sheet = sheet;
+    this.source = source;
+    Object[][] hs = Calc.getCellRangeArray( Calc.getCellRange(sheet, 
+                         source.StartColumn, source.StartRow, 
+                         source.EndColumn, source.StartRow));
+    headers = new String[hs[0].length];
+    for (int i = 0; i < headers.length; i++)
+      headers[i] = Calc.cellToString(hs[0][i]);
+  }  // end of Aggregator()
+
+
+
+  // --------------------------- specification ------------------------------
+
+
+  public Aggregator groupBy(String... fieldNames)
+  // add row fields
+  {
+    for (String nm : fieldNames) {
+      int idx = findField(nm);
+      if (idx >= 0)
+        rowFields.add(idx);
+    }
+    return this;
+  }
+
+
+  public Aggregator pivotBy(String fieldName)
+  // the column field (at most one)
+  {
+    pivotField = findField(fieldName);
+    return this;
+  }
+
+
+  public Aggregator add(String fieldName, int fn)
+  {  return add(fieldName, fn, 50);  }
+
+
+  public Aggregator add(String fieldName, int fn, double percent)
+  // percent is only used by PERCENTILE (0 - 100)
+  {
+    int idx = findField(fieldName);
+    if (idx < 0)
+      return this;
+    if ((fn < SUM) || (fn > PERCENTILE)) {
+      System.out.println("Unknown aggregate function: " + fn);
+      return this;
+    }
+    measureCols.add(idx);
+    measureFns.add(fn);
+    measurePercents.add(percent);
+    return this;
+  }  // end of add()
+
+
+
+  private int findField(String nm)
+  {
+    for (int i = 0; i < headers.length; i++)
+      if (nm.equals(headers[i]))
+        return i;
+    System.out.println("No field called \"" + nm + "\"");
+    return -1;
+  }  // end of findField()
+
+
+
+  private String getLabel(int m)
+  {
+    int fn = measureFns.get(m);
+    String fnName = (fn == PERCENTILE) ? 
+              ("Percentile " + Calc.cellToString(measurePercents.get(m))) : FN_NAMES[fn];
+    return fnName + " - " + headers[measureCols.get(m)];
+  }  // end of getLabel()
+
+
+
+  // ------------------------------ running ---------------------------------
+
+
+  public Object[][] run()
+  // read the source, aggregate it, and return the pivot-shaped table
+  {
+    int numKeys = rowFields.size() + ((pivotField >= 0) ? 1 : 0);
+    int numMeasures = measureCols.size();
+    if (numMeasures == 0) {
+      System.out.println("No measures to aggregate");
+      return null;
+    }
+
+    // the key fields are dictionary-encoded, the measures stored as doubles
+    int numRows = source.EndRow - source.StartRow;     // without the header
+    final KeyColumn[] keyCols = new KeyColumn[numKeys];
+    int[] keyIdxs = new int[numKeys];
+    for (int k = 0; k < numKeys; k++) {
+      keyCols[k] = new KeyColumn(numRows);
+      keyIdxs[k] = (k < rowFields.size()) ? rowFields.get(k) : pivotField;
+    }
+    double[][] valCols = new double[numMeasures][numRows];
+    if (numRows > 0)
+      readColumns(keyIdxs, keyCols, valCols);
+
+    boolean[] keepValues = new boolean[numMeasures];
+    for (int m = 0; m < numMeasures; m++)
+      keepValues[m] = (measureFns.get(m) == PERCENTILE);
+
+    HashMap<Key, Acc[]> groups = ForkJoinPool.commonPool().invoke(
+              new GroupTask(keyCols, valCols, keepValues, 0, numRows));
+    table = makeTable(groups, keyCols);
+    return table;
+  }  // end of run()
+
+
+
+  private void readColumns(int[] keyIdxs, KeyColumn[] keyCols, double[][] valCols)
+  /* read only the key and measure columns of the source, as runs of
+     adjacent columns, each in blocks of rows */
+  {
+    TreeSet<Integer> needed = new TreeSet<Integer>();
+    for (int idx : keyIdxs)
+      needed.add(idx);
+    needed.addAll(measureCols);
+
+    Integer[] cols = needed.toArray(new Integer[needed.size()]);
+    int runStart = 0;
+    for (int i = 1; i <= cols.length; i++) {
+      if ((i < cols.length) && (cols[i] == cols[i-1] + 1))
+        continue;      // the run goes on
+      readRun(cols[runStart], cols[i-1], keyIdxs, keyCols, valCols);
+      runStart = i;
+    }
+  }  // end of readColumns()
+
+
+
+  private void readRun(int firstCol, int lastCol, int[] keyIdxs, 
+                       KeyColumn[] keyCols, double[][] valCols)
+  // read source columns firstCol to lastCol (0-based within the source)
+  {
+    CellRangeAddress body = new CellRangeAddress(source.Sheet, 
+                      source.StartColumn + firstCol, source.StartRow+1, 
+                      source.StartColumn + lastCol, source.EndRow);
+    SheetReader reader = new SheetReader(sheet, body, 
+                            Calc.getBandSize(lastCol - firstCol + 1), true);
+    try {
+      Object[][] block;
+      while ((block = reader.nextBlock()) != null) {
+        int base = reader.getBlockStart() - body.StartRow;
+        for (int k = 0; k < keyIdxs.length; k++) {
+          int c = keyIdxs[k] - firstCol;
+          if ((c < 0) || (keyIdxs[k] > lastCol))
+            continue;
+          for (int r = 0; r < block.length; r++)
+            keyCols[k].set(base + r, block[r][c]);
+        }
+        for (int m = 0; m < valCols.length; m++) {
+          int c = measureCols.get(m) - firstCol;
+          if ((c < 0) || (measureCols.get(m) > lastCol))
+            continue;
+          for (int r = 0; r < block.length; r++) {
+            Object o = block[r][c];
+            valCols[m][base + r] = (o instanceof Double) ? (Double) o : Double.NaN;
+          }
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }  // end of readRun()
+
+
+
+  public Object[][] getTable()
+  {  return table;  }
+
+
+
+  public void writeTo(XSpreadsheet destSheet, int col, int row)
+  // write the last result as one block, with its text as literals
+  {
+    if (table == null) {
+      System.out.println("Nothing to write; call run() first");
+      return;
+    }
+    XCellRange range = Calc.getCellRange(destSheet, col, row, 
+                         col + table[0].length-1, row + table.length-1);
+    SheetWriter.writeLiterals(range, table);
+  }  // end of writeTo()
+
+
+
+  // --------------------------- fork/join ----------------------------------
+
+
+  private static class GroupTask extends RecursiveTask<HashMap<Key, Acc[]>>
+  // group and aggregate the rows [lo, hi)
+  {
+    private static final long serialVersionUID = 1L;
+
+    final KeyColumn[] keyCols;
+    final double[][] valCols;
+    final boolean[] keepValues;
+    final int lo, hi;
+
+    GroupTask(KeyColumn[] keyCols, double[][] valCols, boolean[] keepValues,
+                                                        int lo, int hi)
+    {
+      this.keyCols = keyCols;
+      this.valCols = valCols;
+      this.keepValues = keepValues;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+
+    protected HashMap<Key, Acc[]> compute()
+    {
+      if (hi - lo > TASK_ROWS) {
+        int mid = (lo + hi) >>> 1;
+        GroupTask left = new GroupTask(keyCols, valCols, keepValues, lo, mid);
+        GroupTask right = new GroupTask(keyCols, valCols, keepValues, mid, hi);
+        left.fork();
+        HashMap<Key, Acc[]> rightRes = right.compute();
+        HashMap<Key, Acc[]> leftRes = left.join();
+        for (Map.Entry<Key, Acc[]> e : rightRes.entrySet()) {
+          Acc[] accs = leftRes.get(e.getKey());
+          if (accs == null)
+            leftRes.put(e.getKey(), e.getValue());
+          else
+            for (int m = 0; m < accs.length; m++)
+              accs[m].merge(e.getValue()[m]);
+        }
+        return leftRes;
+      }
+
+      HashMap<Key, Acc[]> groups = new HashMap<Key, Acc[]>();
+      for (int r = lo; r < hi; r++) {
+        int[] codes = new int[keyCols.length];
+        for (int k = 0; k < codes.length; k++)
+          codes[k] = keyCols[k].getCode(r);
+        Key key = new Key(codes);
+        Acc[] accs = groups.get(key);
+        if (accs == null) {
+          accs = new Acc[valCols.length];
+          for (int m = 0; m < accs.length; m++)
+            accs[m] = new Acc(keepValues[m]);
+          groups.put(key, accs);
+        }
+        for (int m = 0; m < accs.length; m++)
+          accs[m].add(valCols[m][r]);
+      }
+      return groups;
+    }  // end of compute()
+  }  // end of GroupTask class
+
+
+
+  private static class Key
+  {
+    final int[] codes;
+    final int hash;
+
+    Key(int[] codes)
+    {  this.codes = codes;
+       hash = Arrays.hashCode(codes);
+    }
+
+    public int hashCode()
+    {  return hash;  }
+
+    public boolean equals(Object o)
+    {  return (o instanceof Key) && Arrays.equals(codes, ((Key) o).codes);  }
+  }  // end of Key class
+
+
+
+  private static class Acc
+  // running totals for one measure of one group
+  {
+    long count = 0;
+    double sum = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double[] vals;       // only kept for percentiles
+    int numVals = 0;
+
+    Acc(boolean keepValues)
+    {  vals = keepValues ? new double[16] : null;  }
+
+    void add(double d)
+    {
+      if (Double.isNaN(d))
+        return;
+      count++;
+      sum += d;
+      if (d < min)
+        min = d;
+      if (d > max)
+        max = d;
+      if (vals != null) {
+        if (numVals == vals.length)
+          vals = Arrays.copyOf(vals, numVals*2);
+        vals[numVals++] = d;
+      }
+    }  // end of add()
+
+    void merge(Acc a)
+    {
+      count += a.count;
+      sum += a.sum;
+      min = Math.min(min, a.min);
+      max = Math.max(max, a.max);
+      if (vals != null) {
+        if (numVals + a.numVals > vals.length)
+          vals = Arrays.copyOf(vals, numVals + a.numVals);
+        System.arraycopy(a.vals, 0, vals, numVals, a.numVals);
+        numVals += a.numVals;
+      }
+    }  // end of merge()
+
+    Object result(int fn, double percent)
+    // "" if the group has no numbers (except for COUNT)
+    {
+      if (fn == COUNT)
+        return (double) count;
+      if (count == 0)
+        return "";
+      switch (fn) {
+        case SUM:  return sum;
+        case AVERAGE:  return sum/count;
+        case MIN:  return min;
+        case MAX:  return max;
+        default:   return percentile(percent);
+      }
+    }  // end of result()
+
+    double percentile(double percent)
+    // linear interpolation between the closest ranks (as PERCENTILE.INC)
+    {
+      double[] sorted = Arrays.copyOf(vals, numVals);
+      Arrays.sort(sorted);
+      double rank = Math.max(0, Math.min(100, percent))/100.0 * (numVals-1);
+      int lower = (int) Math.floor(rank);
+      int upper = Math.min(lower+1, numVals-1);
+      return sorted[lower] + (rank - lower)*(sorted[upper] - sorted[lower]);
+    }  // end of percentile()
+  }  // end of Acc class
+
+
+
+  // ------------------------------ output ----------------------------------
+
+
+  private Object[][] makeTable(HashMap<Key, Acc[]> groups, KeyColumn[] keyCols)
+  {
+    int numRowFields = rowFields.size();
+    int numMeasures = measureCols.size();
+    boolean hasPivot = (pivotField >= 0);
+    boolean[] keepValues = new boolean[numMeasures];
+    for (int m = 0; m < numMeasures; m++)
+      keepValues[m] = (measureFns.get(m) == PERCENTILE);
+
+    // collect the distinct row groups and pivot values, with totals
+    TreeMap<int[], HashMap<Integer, Acc[]>> rows = 
+          new TreeMap<int[], HashMap<Integer, Acc[]>>(new CodesComparator(keyCols));
+    TreeSet<Integer> pivotCodes = new TreeSet<Integer>( hasPivot ?
+                 new CodeComparator(keyCols[numRowFields]) : null);
+    HashMap<Integer, Acc[]> totals = new HashMap<Integer, Acc[]>();
+
+    for (Map.Entry<Key, Acc[]> e : groups.entrySet()) {
+      int[] codes = e.getKey().codes;
+      int[] rowCodes = Arrays.copyOf(codes, numRowFields);
+      int pCode = hasPivot ? codes[numRowFields] : 0;
+      pivotCodes.add(pCode);
+
+      HashMap<Integer, Acc[]> cells = rows.get(rowCodes);
+      if (cells == null) {
+        cells = new HashMap<Integer, Acc[]>();
+        rows.put(rowCodes, cells);
+      }
+      cells.put(pCode, e.getValue());
+
+      Acc[] tot = totals.get(pCode);
+      if (tot == null) {
+        tot = new Acc[numMeasures];
+        for (int m = 0; m < numMeasures; m++)
+          tot[m] = new Acc(keepValues[m]);
+        totals.put(pCode, tot);
+      }
+      for (int m = 0; m < numMeasures; m++)
+        tot[m].merge(e.getValue()[m]);
+    }
+
+    // header row
+    int numCols = numRowFields + pivotCodes.size()*numMeasures;
+    int numGroupRows = (numRowFields == 0) ? 0 : rows.size();
+          // with no row fields, the only group is the totals row
+    Object[][] out = new Object[numGroupRows + 2][numCols];
+    for (int f = 0; f < numRowFields; f++)
+      out[0][f] = headers[rowFields.get(f)];
+    int c = numRowFields;
+    for (int pCode : pivotCodes) {
+      for (int m = 0; m < numMeasures; m++) {
+        if (!hasPivot)
+          out[0][c++] = getLabel(m);
+        else {
+          Object pVal = toCell( keyCols[numRowFields].decode(pCode));
+          out[0][c++] = (numMeasures == 1) ? pVal : 
+                            (Calc.cellToString(pVal) + " - " + getLabel(m));
+        }
+      }
+    }
+
+    // a row per group, then the totals
+    int r = 1;
+    for (Map.Entry<int[], HashMap<Integer, Acc[]>> e : rows.entrySet()) {
+      if (numGroupRows == 0)
+        break;
+      for (int f = 0; f < numRowFields; f++)
+        out[r][f] = toCell( keyCols[f].decode(e.getKey()[f]));
+      fillMeasures(out[r], e.getValue(), pivotCodes);
+      r++;
+    }
+    for (int f = 0; f < numRowFields; f++)
+      out[r][f] = (f == 0) ? "Total Result" : "";
+    fillMeasures(out[r], totals, pivotCodes);
+    return out;
+  }  // end of makeTable()
+
+
+
+  private void fillMeasures(Object[] row, HashMap<Integer, Acc[]> cells, 
+                                          TreeSet<Integer> pivotCodes)
+  {
+    int c = rowFields.size();
+    int numMeasures = measureCols.size();
+    for (int pCode : pivotCodes) {
+      Acc[] accs = cells.get(pCode);
+      for (int m = 0; m < numMeasures; m++)
+        row[c++] = (accs == null) ? "" : 
+                      accs[m].result(measureFns.get(m), measurePercents.get(m));
+    }
+  }  // end of fillMeasures()
+
+
+
+  private static Object toCell(Object val)
+  // group values keep their type; an empty value is shown as "(empty)"
+  {  return (val == null) ? "(empty)" : val;  }
+
+
+
+  private static int compareValues(Object a, Object b)
+  // numbers before text, numbers by value, empty values last
+  {
+    if (a == null)
+      return (b == null) ? 0 : 1;
+    if (b == null)
+      return -1;
+    if ((a instanceof Double) && (b instanceof Double))
+      return Double.compare((Double) a, (Double) b);
+    if (a instanceof Double)
+      return -1;
+    if (b instanceof Double)
+      return 1;
+    return a.toString().compareToIgnoreCase(b.toString());
+  }  // end of compareValues()
+
+
+
+  private static class KeyColumn
+  /* a dictionary-encoded column of key values; the values keep their
+     getDataArray() types, so the text "2000" and the number 2000 are
+     different keys. Empty cells have the code EMPTY */
+  {
+    static final int EMPTY = -1;
+
+    final int[] codes;
+    final ArrayList<Object> dict = new ArrayList<Object>();
+    final HashMap<Object, Integer> codeMap = new HashMap<Object, Integer>();
+
+    KeyColumn(int numRows)
+    {  codes = new int[numRows];  }
+
+    void set(int row, Object val)
+    {
+      if ((val == null) || "".equals(val)) {
+        codes[row] = EMPTY;
+        return;
+      }
+      Integer code = codeMap.get(val);
+      if (code == null) {
+        code = dict.size();
+        dict.add(val);
+        codeMap.put(val, code);
+      }
+      codes[row] = code;
+    }  // end of set()
+
+    int getCode(int row)
+    {  return codes[row];  }
+
+    Object decode(int code)
+    {  return (code == EMPTY) ? null : dict.get(code);  }
+  }  // end of KeyColumn class
+
+
+
+  private static class CodeComparator implements Comparator<Integer>
+  {
+    final KeyColumn col;
+
+    CodeComparator(KeyColumn col)
+    {  this.col = col;  }
+
+    public int compare(Integer a, Integer b)
+    {
+      int res = compareValues(col.decode(a), col.decode(b));
+      return (res != 0) ? res : Integer.compare(a, b);   // e.g. "A" and "a"
+    }
+  }  // end of CodeComparator class
+
+
+
+  private static class CodesComparator implements Comparator<int[]>
+  // compare groups by their row field values, in field order
+  {
+    final KeyColumn[] cols;
+
+    CodesComparator(KeyColumn[] cols)
+    {  this.cols = cols;  }
+
+    public int compare(int[] a, int[] b)
+    {
+      for (int i = 0; i < a.length; i++) {
+        int res = compareValues(cols[i].decode(a[i]), cols[i].decode(b[i]));
+        if (res != 0)
+          return res;
+        if (a[i] != b[i])
+          return Integer.compare(a[i], b[i]);   // e.g. "A" and "a"
+      }
+      return 0;
+    }
+  }  // end of CodesComparator class
+
+}  // end of Aggregator class
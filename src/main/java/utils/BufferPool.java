@@ -0,0 +1,57 @@
+// BufferPool.java
+
+/* A pool of fixed-size byte[] chunks, reused by ChunkedXInputStream
+   and ChunkedXOutputStream so that streaming many documents to and
+   from office doesn't keep allocating large arrays. Thread-safe.
+*/
+
+package utils;
+
+import java.util.concurrent.*;
+
+
+
+public class BufferPool
+{
+  public static final int CHUNK_SIZE = 64*1024;    // 64 KB
+  private static final int MAX_POOLED = 256;       // i.e. keep at most 16 MB
+
+  private static final BufferPool defaultPool = new BufferPool(CHUNK_SIZE, MAX_POOLED);
+
+  private final int chunkSize;
+  private final BlockingQueue<byte[]> chunks;
+
+
+
+  public BufferPool(int chunkSize, int maxPooled)
+  {
+    this.chunkSize = chunkSize;
+    chunks = new ArrayBlockingQueue<byte[]>(maxPooled);
+  }  // end of BufferPool()
+
+
+  public static BufferPool getDefault()
+  {  return defaultPool;  }
+
+
+  public int getChunkSize()
+  {  return chunkSize;  }
+
+
+
+  public byte[] take()
+  // reuse a pooled chunk, or allocate a new one
+  {
+    byte[] chunk = chunks.poll();
+    return (chunk != null) ? chunk : new byte[chunkSize];
+  }
+
+
+  public void give(byte[] chunk)
+  // return a chunk to the pool (it is dropped if the pool is full)
+  {
+    if ((chunk != null) && (chunk.length == chunkSize))
+      chunks.offer(chunk);
+  }
+
+}  // end of BufferPool class
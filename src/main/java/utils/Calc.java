@@ -6,12 +6,14 @@
    easier to use. They are currently divided into the following
    groups:
      * document methods
+     * CSV import/export
      * sheet methods
      * view methods
      * view data methods
      * insert/remove rows, columns, cells
 
      * get/set values in cells, arrays, rows, columns
+     * typed bulk readers and writers
      * get XCell and XCellRange methods
      * convert cell/cellrange names to positions
      * get cell and range addresses
@@ -100,6 +102,28 @@ public class Calc
                               new com.sun.star.awt.Point(3,4);
 
 
+  // for callFunBatch(): fewer evaluations than this use callFun()
+  public static final int BATCH_CALL_THRESHOLD = 50;
+
+  // max rows written to the scratch sheet in one go
+  private static final int BATCH_CALL_ROWS = 20000;
+
+  // max cells fetched by one getDataArray() call in the bulk readers,
+  // to keep each bridge message a reasonable size
+  public static final int MAX_CELLS_PER_READ = 100000;
+
+  // the value XChartDataArray.setData() treats as an empty cell
+  // (see XChartData.getNotANumber())
+  private static final double CHART_NAN = Double.MIN_NORMAL;
+
+  // day 0 of Calc's date serial numbers
+  private static final java.time.LocalDate NULL_DATE = java.time.LocalDate.of(1899, 12, 30);
+
+  // standard number format keys, by NumberFormat type
+  private static final java.util.concurrent.ConcurrentHashMap<Short, Integer> stdFormats =
+                     new java.util.concurrent.ConcurrentHashMap<Short, Integer>();
+
+
 
   // --------------- document methods ------------------
 
@@ -158,6 +182,170 @@ public class Calc
 */
 
 
+  // ----------------------- CSV import/export ------------------------
+  /* These use office's CSV filter, so the file is parsed/written
+     inside office, and no cell data crosses the bridge. The filter
+     options string holds comma-separated tokens:
+       1. field separator(s), as character codes (e.g. 44 for ',')
+       2. text delimiter (quote) code (e.g. 34 for '"')
+       3. character set (e.g. 76 for UTF-8)
+       4. line number to start importing from (1-based)
+       5. column formats, as column/format pairs separated by '/'
+          (e.g. "1/2/3/1" makes column 1 text and column 3 standard)
+       ...
+       12. (export) the sheet to export (1-based; 0 for the first),
+           supported by LibreOffice 7.2 and later
+     csvFilterOptions() builds the usual ones.
+  */
+
+  public static final String CSV_FILTER = "Text - txt - csv (StarCalc)";
+
+  // CSV column formats
+  public static final int CSV_STANDARD = 1;
+  public static final int CSV_TEXT = 2;
+  public static final int CSV_MDY = 3;
+  public static final int CSV_DMY = 4;
+  public static final int CSV_YMD = 5;
+  public static final int CSV_SKIP = 9;
+  public static final int CSV_US_ENGLISH = 10;
+
+  // CSV character sets (office's text encoding numbers)
+  public static final String CSV_UTF8 = "76";
+  public static final String CSV_LATIN1 = "12";      // ISO-8859-1
+  public static final String CSV_WINDOWS = "1";      // Windows-1252
+
+
+
+  public static String csvFilterOptions()
+  // comma separated, double quotes, UTF-8, from the first line
+  {  return csvFilterOptions(',', '"', CSV_UTF8, 1, null);  }
+
+
+
+  public static String csvFilterOptions(char sep, char quote, String charSet, 
+                                                 int firstLine, int[] colFormats)
+  /* colFormats[i] is the format of column i+1 (see the CSV_ constants);
+     it may be null, so all the columns use the standard format */
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append((int) sep).append(',');
+    sb.append((int) quote).append(',');
+    sb.append(charSet).append(',');
+    sb.append(Math.max(1, firstLine)).append(',');
+    if (colFormats != null) {
+      for (int i = 0; i < colFormats.length; i++) {
+        if (i > 0)
+          sb.append('/');
+        sb.append(i+1).append('/').append(colFormats[i]);
+      }
+    }
+    return sb.toString();
+  }  // end of csvFilterOptions()
+
+
+
+  public static String csvExportOptions(char sep, char quote, String charSet, 
+                                                                 int sheetIdx)
+  /* for exporting the sheet with index sheetIdx (0-based), as shown
+     (i.e. formatted values), with formulae evaluated */
+  { return (int) sep + "," + (int) quote + "," + charSet + ",1,,0,false,true,true,false,false," +
+           (sheetIdx+1);  
+  }
+
+
+
+  public static XSpreadsheetDocument importCsv(String fnm, XComponentLoader loader)
+  {  return importCsv(fnm, loader, csvFilterOptions());  }
+
+
+  public static XSpreadsheetDocument importCsv(String fnm, XComponentLoader loader,
+                                                           String filterOptions)
+  // load the CSV file as a new (hidden) spreadsheet document
+  {
+    XComponent doc = Lo.openDoc(fnm, loader, Props.makeProps("Hidden", true,
+                          "FilterName", CSV_FILTER, "FilterOptions", filterOptions));
+    if (doc == null) {
+      System.out.println("Could not import " + fnm);
+      return null;
+    }
+    return getSSDoc(doc);
+  }  // end of importCsv()
+
+
+
+  public static XSpreadsheetDocument importCsv(java.io.InputStream is, 
+                           XComponentLoader loader, String filterOptions)
+  {
+    try {
+      ChunkedXInputStream xis = new ChunkedXInputStream(is, BufferPool.getDefault());
+      XComponent doc = Lo.openDoc(xis, loader, Props.makeProps("Hidden", true,
+                          "FilterName", CSV_FILTER, "FilterOptions", filterOptions));
+      if (doc == null) {
+        System.out.println("Could not import CSV stream");
+        return null;
+      }
+      return getSSDoc(doc);
+    }
+    catch (java.io.IOException e) {
+      System.out.println("Could not read CSV stream: " + e);
+      return null;
+    }
+  }  // end of importCsv()
+
+
+
+  public static boolean importCsv(XSpreadsheet sheet, String fnm, String filterOptions)
+  /* replace the contents of an existing sheet with the CSV file's;
+     the sheet is linked to the file and then unlinked, so only
+     the values are kept */
+  {
+    String url = FileIO.fnmToURL(fnm);
+    XSheetLinkable linkable = Lo.qi(XSheetLinkable.class, sheet);
+    if ((url == null) || (linkable == null)) {
+      System.out.println("Could not import " + fnm + " into sheet");
+      return false;
+    }
+    linkable.link(url, "", CSV_FILTER, filterOptions, SheetLinkMode.VALUE);
+    linkable.setLinkMode(SheetLinkMode.NONE);
+    return true;
+  }  // end of importCsv()
+
+
+
+  public static boolean exportCsv(XSpreadsheetDocument doc, String fnm)
+  // the first sheet, comma separated, double quotes, UTF-8
+  {  return exportCsv(doc, 0, fnm, csvExportOptions(',', '"', CSV_UTF8, 0));  }
+
+
+
+  public static boolean exportCsv(XSpreadsheetDocument doc, int sheetIdx, 
+                                        String fnm, String filterOptions)
+  /* older versions of office ignore the sheet token in the options and
+     export the active sheet, so the sheet is made active first */
+  {
+    XSpreadsheet sheet = getSheet(doc, sheetIdx);
+    if (sheet == null)
+      return false;
+    setActiveSheet(doc, sheet);
+    XStorable store = Lo.qi(XStorable.class, doc);
+    return Lo.storeDocFormat(store, fnm, CSV_FILTER, null, filterOptions);
+  }  // end of exportCsv()
+
+
+
+  public static boolean exportCsv(XSpreadsheetDocument doc, int sheetIdx, 
+                                 java.io.OutputStream os, String filterOptions)
+  {
+    XSpreadsheet sheet = getSheet(doc, sheetIdx);
+    if (sheet == null)
+      return false;
+    setActiveSheet(doc, sheet);
+    XStorable store = Lo.qi(XStorable.class, doc);
+    return Lo.storeDocFormat(store, os, CSV_FILTER, null, filterOptions);
+  }  // end of exportCsv()
+
+
+
   // ------------------------ sheet methods -------------------------
 
 
@@ -506,6 +694,19 @@ public class Calc
   }
 
 
+  public static void insertRow(XSpreadsheetDocument doc, XSpreadsheet sheet, int idx)
+  // insert inside a bulk update, so dependent formulae are recalculated once
+  {
+    CalcBulkUpdate bulk = new CalcBulkUpdate(doc);
+    try {
+      insertRow(sheet, idx);
+    }
+    finally {
+      bulk.close();
+    }
+  }
+
+
   public static void deleteRow(XSpreadsheet sheet, int idx)
   {
     XColumnRowRange crRange = Lo.qi(XColumnRowRange.class, sheet);
@@ -575,11 +776,20 @@ public class Calc
 
 
   public static void setVal(XCell cell, Object value)
+  /* only strings starting with "=" are formulae; other strings are
+     stored as text, without being parsed (so "1-2" is not a date) */
   { 
     if (value instanceof Number)
       cell.setValue( convertToDouble(value));
-    else if (value instanceof String)
-      cell.setFormula((String)value);
+    else if (value instanceof Boolean)
+      cell.setValue( ((Boolean) value) ? 1 : 0);
+    else if (value instanceof String) {
+      String s = (String) value;
+      if (s.startsWith("="))
+        cell.setFormula(s);
+      else
+        Lo.qi(XText.class, cell).setString(s);
+    }
     else
       System.out.println("Value is not a number or string: " + value);
   }  // end of setVal()
@@ -692,6 +902,10 @@ public class Calc
 
 
   public static void setArray(XSpreadsheet sheet, String name, Object[][] values)
+  /* Strings starting with "=" are written as formulae, and other strings
+     as text (see SheetWriter.writeBlock()). Before SheetWriter, the
+     array went straight to setDataArray(), which wrote "=" strings as
+     text; use setTextArray() for that. */
   {
     if (isCellRangeName(name))
       setArrayRange(sheet, name, values);
@@ -700,6 +914,20 @@ public class Calc
   }  // end of setArray()
 
 
+  public static void setArray(XSpreadsheetDocument doc, XSpreadsheet sheet, 
+                                        String name, Object[][] values)
+  // no repaints, recalculation or undo actions until the array is written
+  {
+    CalcBulkUpdate bulk = new CalcBulkUpdate(doc);
+    try {
+      setArray(sheet, name, values);
+    }
+    finally {
+      bulk.close();
+    }
+  }  // end of setArray()
+
+
   public static void setArrayRange(XSpreadsheet sheet, String rangeName, Object[][] values)
   { XCellRange cellRange = getCellRange(sheet, rangeName);
     setCellRangeArray(cellRange, values);
@@ -707,9 +935,9 @@ public class Calc
 
 
   public static void setCellRangeArray(XCellRange cellRange, Object[][] values)
-  { XCellRangeData crData = Lo.qi(XCellRangeData.class, cellRange);
-    crData.setDataArray(values);
-  }  // end of setCellRangeArray()
+  /* strings starting with "=" are written as formulae (setDataArray()
+     would write them as text); see setArray() and SheetWriter */
+  {  SheetWriter.writeBlock(cellRange, values);  }
 
 
 
@@ -752,7 +980,17 @@ public class Calc
 
 
   public static double[][] getDoublesArray(XSpreadsheet sheet, String rangeName)
-  {  return convertToDoubles( getArray(sheet, rangeName));  }
+  // empty and text cells are returned as 0
+  {
+    XCellRange cellRange = getCellRange(sheet, rangeName);
+    CellRangeAddress addr = getAddress(cellRange);
+    int numCols = addr.EndColumn - addr.StartColumn + 1;
+    double[] vals = getDoubles(cellRange, false);
+    double[][] doubles = new double[vals.length/numCols][numCols];
+    for (int i = 0; i < vals.length; i++)
+      doubles[i/numCols][i%numCols] = Double.isNaN(vals[i]) ? 0 : vals[i];
+    return doubles;
+  }  // end of getDoublesArray()
 
 
   public static double[][] convertToDoubles(Object[][] vals)
@@ -782,6 +1020,248 @@ public class Calc
 
 
 
+  // ----------- typed bulk readers ------------------
+  /* These read a range with as few getDataArray() calls as possible,
+     splitting it into bands of rows of at most MAX_CELLS_PER_READ cells,
+     and unpack the values straight into primitive arrays.
+  */
+
+
+  public static double[] getDoubles(XCellRange cellRange, boolean isColumnMajor)
+  /* return the range's numbers (including formula results) row by row,
+     or column by column if isColumnMajor is true; empty and text 
+     cells are NaN */
+  {
+    CellRangeAddress addr = getAddress(cellRange);
+    int numCols = addr.EndColumn - addr.StartColumn + 1;
+    int numRows = addr.EndRow - addr.StartRow + 1;
+    double[] vals = new double[numCols*numRows];
+
+    int bandSize = getBandSize(numCols);
+    for (int rowStart = 0; rowStart < numRows; rowStart += bandSize) {
+      int n = Math.min(bandSize, numRows - rowStart);
+      Object[][] data = getCellRangeArray( getCellRange(cellRange, 
+                                         0, rowStart, numCols-1, rowStart+n-1) );
+      for (int r = 0; r < n; r++) {
+        Object[] rowData = data[r];
+        int row = rowStart + r;
+        for (int c = 0; c < numCols; c++) {
+          Object o = rowData[c];
+          double d = (o instanceof Double) ? ((Double) o).doubleValue() : Double.NaN;
+          if (isColumnMajor)
+            vals[c*numRows + row] = d;
+          else
+            vals[row*numCols + c] = d;
+        }
+      }
+    }
+    return vals;
+  }  // end of getDoubles()
+
+
+
+  public static long[] getLongs(XCellRange cellRange, boolean isColumnMajor, 
+                                                          long emptyVal)
+  /* return the range's numbers rounded to longs, row by row or column
+     by column; empty and text cells are set to emptyVal */
+  {
+    double[] vals = getDoubles(cellRange, isColumnMajor);
+    long[] longs = new long[vals.length];
+    for (int i = 0; i < vals.length; i++)
+      longs[i] = Double.isNaN(vals[i]) ? emptyVal : Math.round(vals[i]);
+    return longs;
+  }  // end of getLongs()
+
+
+
+  public static StringColumn getStringColumn(XCellRange cellRange, int colIdx)
+  /* return the strings in column colIdx of the range (0 is the first
+     column) as a dictionary-encoded column. Numbers are converted with
+     toString() (integers without a ".0"); empty cells are StringColumn.EMPTY */
+  {
+    CellRangeAddress addr = getAddress(cellRange);
+    int numRows = addr.EndRow - addr.StartRow + 1;
+    if ((colIdx < 0) || (colIdx > addr.EndColumn - addr.StartColumn)) {
+      System.out.println("Column index out of range");
+      return null;
+    }
+
+    StringColumn col = new StringColumn(numRows);
+    int bandSize = getBandSize(1);
+    for (int rowStart = 0; rowStart < numRows; rowStart += bandSize) {
+      int n = Math.min(bandSize, numRows - rowStart);
+      Object[][] data = getCellRangeArray( getCellRange(cellRange, 
+                                       colIdx, rowStart, colIdx, rowStart+n-1) );
+      for (int r = 0; r < n; r++)
+        col.add( cellToString(data[r][0]) );
+    }
+    return col;
+  }  // end of getStringColumn()
+
+
+
+  public static String cellToString(Object o)
+  // convert a getDataArray() value to a string
+  {
+    if (o instanceof Double) {
+      double d = (Double) o;
+      if ((d == Math.rint(d)) && (Math.abs(d) < 1e15))
+        return Long.toString((long) d);
+      return Double.toString(d);
+    }
+    return (o == null) ? null : o.toString();
+  }  // end of cellToString()
+
+
+
+  public static int getBandSize(int numCols)
+  // the number of rows of numCols columns that can be read in one call
+  {  return Math.max(1, MAX_CELLS_PER_READ/Math.max(1, numCols));  }
+
+
+
+  // ----------- typed bulk writers ------------------
+  /* Numbers are written with XChartDataArray.setData(), which takes a
+     double[][] (no boxing into Objects, and a compact message); NaN
+     values are written as empty cells. Text is written as literals,
+     and formulae separately, so neither goes through the other's path.
+     Number formats (dates, booleans) are set once on a whole column.
+  */
+
+
+  public static void setDoubles(XSpreadsheet sheet, int colStart, int rowStart, 
+                                                              double[][] vals)
+  {
+    if ((vals.length == 0) || (vals[0].length == 0))
+      return;
+    int numCols = vals[0].length;
+    int bandSize = getBandSize(numCols);
+    for (int r = 0; r < vals.length; r += bandSize) {
+      int n = Math.min(bandSize, vals.length - r);
+      double[][] band = new double[n][];
+      for (int i = 0; i < n; i++) {
+        band[i] = vals[r+i];
+        for (int c = 0; c < numCols; c++) {
+          if (Double.isNaN(vals[r+i][c])) {   // copy the row and mark empty cells
+            band[i] = vals[r+i].clone();
+            for (int j = c; j < numCols; j++)
+              if (Double.isNaN(band[i][j]))
+                band[i][j] = CHART_NAN;
+            break;
+          }
+        }
+      }
+      XCellRange range = getCellRange(sheet, colStart, rowStart + r, 
+                                      colStart + numCols-1, rowStart + r + n-1);
+      Lo.qi(com.sun.star.chart.XChartDataArray.class, range).setData(band);
+    }
+  }  // end of setDoubles()
+
+
+
+  public static void setDoubleColumn(XSpreadsheet sheet, int col, int rowStart, double[] vals)
+  {
+    double[][] data = new double[vals.length][1];
+    for (int i = 0; i < vals.length; i++)
+      data[i][0] = vals[i];
+    setDoubles(sheet, col, rowStart, data);
+  }  // end of setDoubleColumn()
+
+
+  public static void setIntColumn(XSpreadsheet sheet, int col, int rowStart, int[] vals)
+  {
+    double[][] data = new double[vals.length][1];
+    for (int i = 0; i < vals.length; i++)
+      data[i][0] = vals[i];
+    setDoubles(sheet, col, rowStart, data);
+  }  // end of setIntColumn()
+
+
+  public static void setLongColumn(XSpreadsheet sheet, int col, int rowStart, long[] vals)
+  // values beyond +/- 2^53 lose precision
+  {
+    double[][] data = new double[vals.length][1];
+    for (int i = 0; i < vals.length; i++)
+      data[i][0] = vals[i];
+    setDoubles(sheet, col, rowStart, data);
+  }  // end of setLongColumn()
+
+
+
+  public static void setBooleanColumn(XSpreadsheet sheet, int col, int rowStart, boolean[] vals)
+  // stored as 1/0 with the boolean (TRUE/FALSE) format
+  {
+    double[][] data = new double[vals.length][1];
+    for (int i = 0; i < vals.length; i++)
+      data[i][0] = vals[i] ? 1 : 0;
+    setDoubles(sheet, col, rowStart, data);
+    setColumnFormat(sheet, col, rowStart, vals.length, NumberFormat.LOGICAL);
+  }  // end of setBooleanColumn()
+
+
+
+  public static void setDateColumn(XSpreadsheet sheet, int col, int rowStart, 
+                                              java.time.LocalDate[] dates)
+  // dates are stored as serial numbers with the standard date format
+  {
+    double[][] data = new double[dates.length][1];
+    for (int i = 0; i < dates.length; i++)
+      data[i][0] = (dates[i] == null) ? Double.NaN : toDateSerial(dates[i]);
+    setDoubles(sheet, col, rowStart, data);
+    setColumnFormat(sheet, col, rowStart, dates.length, NumberFormat.DATE);
+  }  // end of setDateColumn()
+
+
+
+  private static void setColumnFormat(XSpreadsheet sheet, int col, int rowStart,
+                                                  int numRows, short formatType)
+  // one property call for the whole column of cells
+  {
+    if (numRows == 0)
+      return;
+    XCellRange range = getCellRange(sheet, col, rowStart, col, rowStart + numRows-1);
+    Props.setProperty(range, "NumberFormat", getStandardFormat(formatType));
+  }  // end of setColumnFormat()
+
+
+
+  public static void setTextArray(XSpreadsheet sheet, int colStart, int rowStart, 
+                                                               String[][] texts)
+  // literal text; strings starting with "=" are not formulae
+  {
+    if ((texts.length == 0) || (texts[0].length == 0))
+      return;
+    int numCols = texts[0].length;
+    int bandSize = getBandSize(numCols);
+    for (int r = 0; r < texts.length; r += bandSize) {
+      int n = Math.min(bandSize, texts.length - r);
+      XCellRange range = getCellRange(sheet, colStart, rowStart + r, 
+                                      colStart + numCols-1, rowStart + r + n-1);
+      SheetWriter.writeLiterals(range, Arrays.copyOfRange(texts, r, r+n));
+    }
+  }  // end of setTextArray()
+
+
+
+  public static void setFormulaArray(XSpreadsheet sheet, int colStart, int rowStart, 
+                                                             String[][] formulas)
+  // every string is parsed as a formula (or as typed input, if no "=")
+  {
+    if ((formulas.length == 0) || (formulas[0].length == 0))
+      return;
+    int numCols = formulas[0].length;
+    int bandSize = getBandSize(numCols);
+    for (int r = 0; r < formulas.length; r += bandSize) {
+      int n = Math.min(bandSize, formulas.length - r);
+      XCellRange range = getCellRange(sheet, colStart, rowStart + r, 
+                                      colStart + numCols-1, rowStart + r + n-1);
+      Lo.qi(XCellRangeFormula.class, range).setFormulaArray(
+                                       Arrays.copyOfRange(formulas, r, r+n));
+    }
+  }  // end of setFormulaArray()
+
+
+
   // ---------- set/get rows and columns -------------------------
 
 
@@ -796,13 +1276,22 @@ public class Calc
   public static void setCol(XSpreadsheet sheet,
                            int colStart, int rowStart, Object[] values)
   // add values down a single column starting at (colstart, rowstart)
+  // in one block write (rather than one write per cell)
+  {
+    SheetWriter writer = new SheetWriter(sheet);
+    writer.setCol(colStart, rowStart, values);
+  }  // end of setCol()
+
+
+  public static void setCol(XSpreadsheetDocument doc, XSpreadsheet sheet,
+                           int colStart, int rowStart, Object[] values)
   {
-    XCellRange cellRange = getCellRange(sheet, colStart, rowStart,
-                                     colStart, rowStart + values.length-1);
-    XCell xCell = null;
-    for (int i = 0; i < values.length; i++) {
-      xCell = getCell(cellRange, 0, i);     // column -- row
-      setVal(xCell, values[i]);
+    CalcBulkUpdate bulk = new CalcBulkUpdate(doc);
+    try {
+      setCol(sheet, colStart, rowStart, values);
+    }
+    finally {
+      bulk.close();
     }
   }  // end of setCol()
 
@@ -817,13 +1306,11 @@ public class Calc
 
   public static void setRow(XSpreadsheet sheet,
                          int colStart, int rowStart, Object[] values)
-  // add values along a single row starting at (colstart, rowstart)
+  /* add values along a single row starting at (colstart, rowstart);
+     strings starting with "=" are written as formulae, as in setArray() */
   {
-    XCellRange cellRange = getCellRange(sheet, colStart, rowStart,
-                                        colStart + values.length-1, rowStart);
-
-    XCellRangeData crData = Lo.qi(XCellRangeData.class, cellRange);
-    crData.setDataArray( new Object[][]{values});   // 1-row 2D array
+    SheetWriter writer = new SheetWriter(sheet);
+    writer.setRow(colStart, rowStart, values);
   }  // end of setRow()
 
 
@@ -893,26 +1380,44 @@ public class Calc
 
   public static void setDate(XSpreadsheet sheet, String cellName,
                                         int day, int month, int year)
-  // Writes a date with standard date format into a spreadsheet
+  /* Writes a date with standard date format into a spreadsheet;
+     the date is stored as its serial number, so it is not parsed */
   {
     XCell xCell = getCell(sheet, cellName);
-    xCell.setFormula(month + "/" + day + "/" + year);
-    
-    XNumberFormatsSupplier nfsSupplier = 
+    xCell.setValue( toDateSerial( java.time.LocalDate.of(year, month, day)));
+    Props.setProperty(xCell, "NumberFormat", getStandardFormat(NumberFormat.DATE));
+  }  // end of setDate()
+
+
+
+  public static double toDateSerial(java.time.LocalDate date)
+  // the number of days since 30 December 1899, as used by Calc for dates
+  {  return java.time.temporal.ChronoUnit.DAYS.between(NULL_DATE, date);  }
+
+
+  public static java.time.LocalDate fromDateSerial(double serial)
+  {  return NULL_DATE.plusDays((long) Math.floor(serial));  }
+
+
+
+  public static int getStandardFormat(short formatType)
+  /* the key of the standard number format of the given 
+     com.sun.star.util.NumberFormat type, for the default locale */
+  {
+    Integer key = stdFormats.get(formatType);
+    if (key == null) {
+      XNumberFormatsSupplier nfsSupplier = 
               Lo.createInstanceMCF(XNumberFormatsSupplier.class, 
                                           "com.sun.star.util.NumberFormatsSupplier");
-    XNumberFormats numberFormats = nfsSupplier.getNumberFormats();
-    XNumberFormatTypes xFormatTypes = 
+      XNumberFormats numberFormats = nfsSupplier.getNumberFormats();
+      XNumberFormatTypes xFormatTypes = 
              Lo.qi(XNumberFormatTypes.class, numberFormats);
-
-    com.sun.star.lang.Locale aLocale = new com.sun.star.lang.Locale();
-    //aLocale.Country = "GB";
-    //aLocale.Language = "en";
-    int nFormat = xFormatTypes.getStandardFormat(NumberFormat.DATE, aLocale);
-                                        // NumberFormat.DATETIME
-    
-    Props.setProperty(xCell, "NumberFormat", nFormat);
-  }  // end of setDate()
+      com.sun.star.lang.Locale aLocale = new com.sun.star.lang.Locale();
+      key = xFormatTypes.getStandardFormat(formatType, aLocale);
+      stdFormats.put(formatType, key);
+    }
+    return key;
+  }  // end of getStandardFormat()
 
 
 
@@ -1005,6 +1510,22 @@ public class Calc
 
 
 
+  public static XCellRange getCellRange(XCellRange cellRange, 
+                   int colStart, int rowStart, int colEnd, int rowEnd)
+  // positions are relative to the top-left of cellRange
+  { try {
+      return cellRange.getCellRangeByPosition(colStart, rowStart, colEnd, rowEnd);
+    }
+    catch (Exception e) {
+      System.out.println("Could not access cell range in cellrange : (" + 
+                                      colStart + ", " + rowStart + ") to (" +
+                                      colEnd + ", " + rowEnd + ")" );
+      return null;
+    }
+  }  // end of getCellRange()
+
+
+
   public static XCellRange getCellRange(XSpreadsheet sheet, String rangeName)
   // no need to wrap getCellRangeByName(), but have one anyway
   {
@@ -1098,21 +1619,14 @@ public class Calc
 
 
   public static Point getCellPosition(String cellName)
+  // accepts $ references, sheet names and R1C1; see CellRef
   {
-     Pattern p = Pattern.compile( "([a-zA-Z]+)([0-9]+)" );
-     Matcher m = p.matcher(cellName);
-     if (m.matches()) { 
-       // System.out.println(m.group(1) + " - " + m.group(2));
-       int nColumn = columnStringToNumber( m.group(1).toUpperCase() );
-       int nRow = rowStringToNumber(m.group(2));
-       // System.out.println("Column position: " +  nColumn);
-       // System.out.println("Row position: " +  nRow);
-       return new Point(nColumn, nRow);
-     }
-     else {
+     long ref = CellRef.parse(cellName);
+     if (ref == CellRef.NONE) {
        System.out.println("No match found");
        return null;
      }
+     return new Point(CellRef.column(ref), CellRef.row(ref));
   }  // end of getCellPosition()
 
 
@@ -1321,14 +1835,7 @@ public class Calc
      They run as A-Z, AA-AZ, BA-BZ, ..., IV 
      i.e. convert a base 10 number to base 26. 
   */
-  { 
-    String colStr = "";
-     while (nColumn >= 0) { 
-       colStr += (char) ('A' + nColumn%26); 
-       nColumn =  nColumn/26 - 1 ;
-     } 
-     return colStr; 
-  }  // end of columnNumberStr()
+  {  return CellRef.columnName(nColumn);  }
 
 
 
@@ -1360,6 +1867,141 @@ public class Calc
 
 
 
+  public static CellRangeAddress[] findAllAddresses(XSearchable srch, XSearchDescriptor sd)
+  /* the addresses of all the matches, fetched in one call from the 
+     SheetCellRanges container returned by findAll(), rather than as one
+     XCellRange proxy per match; adjacent matches may be merged into
+     one range. Returns an empty array if nothing matches. */
+  {
+    XIndexAccess con = srch.findAll(sd);
+    if (con == null) {
+      System.out.println("Match result is null");
+      return new CellRangeAddress[0];
+    }
+    XSheetCellRangeContainer ranges = Lo.qi(XSheetCellRangeContainer.class, con);
+    if (ranges != null)
+      return ranges.getRangeAddresses();
+
+    // not a container; fall back to one call per match
+    CellRangeAddress[] addrs = new CellRangeAddress[con.getCount()];
+    for (int i=0; i < addrs.length; i++) {
+      try {
+        addrs[i] = getAddress( Lo.qi(XCellRange.class, con.getByIndex(i)));
+      }
+      catch(Exception e)
+      {  System.out.println("Could not access match index " + i);  }
+    }
+    return addrs;
+  }  // end of findAllAddresses()
+
+
+
+  public static Object[][][] getValues(XSpreadsheet sheet, CellRangeAddress[] addrs)
+  /* the values (as returned by getDataArray()) of each of the ranges, 
+     read as a few bands of rows covering them all, rather than a call
+     per range */
+  {
+    Object[][][] results = new Object[addrs.length][][];
+    if (addrs.length == 0)
+      return results;
+
+    // the bounding box of the ranges
+    int startCol = Integer.MAX_VALUE, startRow = Integer.MAX_VALUE;
+    int endCol = -1, endRow = -1;
+    for (CellRangeAddress a : addrs) {
+      startCol = Math.min(startCol, a.StartColumn);
+      startRow = Math.min(startRow, a.StartRow);
+      endCol = Math.max(endCol, a.EndColumn);
+      endRow = Math.max(endRow, a.EndRow);
+    }
+    int bandSize = getBandSize(endCol - startCol + 1);
+
+    // which bands hold (part of) a range
+    int numBands = (endRow - startRow)/bandSize + 1;
+    boolean[] isUsed = new boolean[numBands];
+    for (CellRangeAddress a : addrs)
+      for (int b = (a.StartRow - startRow)/bandSize; 
+                          b <= (a.EndRow - startRow)/bandSize; b++)
+        isUsed[b] = true;
+
+    Object[][][] bands = new Object[numBands][][];
+    for (int b = 0; b < numBands; b++) {
+      if (!isUsed[b])
+        continue;
+      int bStart = startRow + b*bandSize;
+      int bEnd = Math.min(bStart + bandSize - 1, endRow);
+      bands[b] = getCellRangeArray( getCellRange(sheet, startCol, bStart, endCol, bEnd));
+    }
+
+    // copy each range's values out of the bands
+    for (int i = 0; i < addrs.length; i++) {
+      CellRangeAddress a = addrs[i];
+      Object[][] vals = new Object[a.EndRow - a.StartRow + 1][];
+      for (int r = a.StartRow; r <= a.EndRow; r++) {
+        Object[] bandRow = bands[(r - startRow)/bandSize][(r - startRow)%bandSize];
+        vals[r - a.StartRow] = Arrays.copyOfRange(bandRow, 
+                               a.StartColumn - startCol, a.EndColumn - startCol + 1);
+      }
+      results[i] = vals;
+    }
+    return results;
+  }  // end of getValues()
+
+
+
+  public static Map<String, List<CellAddress>> findMatches(XSpreadsheet sheet, 
+                       String[] terms, boolean isRegex, boolean isCaseSensitive)
+  /* search for several terms (or regular expressions) in one pass over the
+     sheet's used range, which is read in blocks; a cell matches a term if
+     the term occurs anywhere in its value (numbers are compared in their
+     plain form, e.g. "3" not "3.0"). The map holds each term's matches in
+     row order. */
+  {
+    LinkedHashMap<String, List<CellAddress>> matches = 
+                            new LinkedHashMap<String, List<CellAddress>>();
+    Pattern[] patterns = new Pattern[terms.length];
+    String[] lowerTerms = new String[terms.length];
+    for (int i = 0; i < terms.length; i++) {
+      matches.put(terms[i], new ArrayList<CellAddress>());
+      if (isRegex)
+        patterns[i] = Pattern.compile(terms[i], 
+                            isCaseSensitive ? 0 : Pattern.CASE_INSENSITIVE);
+      else
+        lowerTerms[i] = isCaseSensitive ? terms[i] : terms[i].toLowerCase();
+    }
+
+    short sheetIdx = getAddress( Lo.qi(XCellRange.class, sheet)).Sheet;
+    SheetReader reader = new SheetReader(sheet, SheetReader.DEFAULT_BLOCK_SIZE, true);
+    try {
+      int startCol = reader.getStartColumn();
+      Object[][] block;
+      while ((block = reader.nextBlock()) != null) {
+        int blockStart = reader.getBlockStart();
+        for (int r = 0; r < block.length; r++) {
+          for (int c = 0; c < block[r].length; c++) {
+            String val = cellToString(block[r][c]);
+            if ((val == null) || val.isEmpty())
+              continue;
+            String lowerVal = (isRegex || isCaseSensitive) ? val : val.toLowerCase();
+            for (int i = 0; i < terms.length; i++) {
+              boolean isMatch = isRegex ? patterns[i].matcher(val).find() : 
+                                          lowerVal.contains(lowerTerms[i]);
+              if (isMatch)
+                matches.get(terms[i]).add( 
+                     new CellAddress(sheetIdx, startCol + c, blockStart + r));
+            }
+          }
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+    return matches;
+  }  // end of findMatches()
+
+
+
   // ---------------------------- cell decoration ------------------------
 
 
@@ -1397,6 +2039,19 @@ public class Calc
   }  // end of changeStyle()
 
 
+  public static void changeStyle(XSpreadsheetDocument doc, XSpreadsheet sheet, 
+                                          String rangeName, String styleName)
+  {
+    CalcBulkUpdate bulk = new CalcBulkUpdate(doc);
+    try {
+      changeStyle(sheet, rangeName, styleName);
+    }
+    finally {
+      bulk.close();
+    }
+  }  // end of changeStyle()
+
+
 
   public static void addBorder(XSpreadsheet sheet, String rangeName)
   {  addBorder(sheet, rangeName, 0);  }    // black
@@ -1596,7 +2251,7 @@ public class Calc
   public static Object callFun(String funcName, Object[] args)
   {
     try {
-      XFunctionAccess fa = Lo.createInstanceMCF(XFunctionAccess.class,
+      XFunctionAccess fa = Lo.createCachedMCF(XFunctionAccess.class,
                                       "com.sun.star.sheet.FunctionAccess");
       return fa.callFunction(funcName, args);
     }
@@ -1609,6 +2264,120 @@ public class Calc
 
 
 
+  public static Object[] callFunBatch(String funcName, Object[][] argCols)
+  /* Evaluate the function once for each row of arguments, where
+     argCols[j] holds the values of the j-th argument, and return the
+     results. Small batches, and ones with array arguments, use callFun()
+     for each row. Larger batches are written to a hidden scratch sheet
+     as values and formulas, and the results read back with one
+     getDataArray() call per block of rows; the sheet's document is
+     closed afterwards. A null argument refers to an empty cell. The 
+     batched path only supports built-in functions that can be used in
+     cell formulae.
+  */
+  {
+    if ((argCols == null) || (argCols.length == 0)) {
+      System.out.println("No function arguments supplied");
+      return null;
+    }
+    int numArgs = argCols.length;
+    int numRows = argCols[0].length;
+    for (Object[] col : argCols) {
+      if (col.length != numRows) {
+        System.out.println("Argument columns have different lengths");
+        return null;
+      }
+    }
+
+    if ((numRows < BATCH_CALL_THRESHOLD) || hasArrayArg(argCols)) {
+      Object[] results = new Object[numRows];
+      Object[] args = new Object[numArgs];
+      for (int row = 0; row < numRows; row++) {
+        for (int j = 0; j < numArgs; j++)
+          args[j] = argCols[j][row];
+        results[row] = callFun(funcName, args);
+      }
+      return results;
+    }
+
+    XSpreadsheetDocument scratchDoc = createScratchDoc();
+    if (scratchDoc == null)
+      return null;
+    XSpreadsheet sheet = getSheet(scratchDoc, 0);
+    String emptyCell = getCellStr(numArgs+1, 0);   // never written, so always empty
+    Object[] results = new Object[numRows];
+    try {
+      for (int start = 0; start < numRows; start += BATCH_CALL_ROWS) {
+        int n = Math.min(BATCH_CALL_ROWS, numRows - start);
+
+        // the arguments go in columns 0 to numArgs-1
+        Object[][] vals = new Object[n][numArgs];
+        String[][] formulas = new String[n][1];
+        for (int i = 0; i < n; i++) {
+          StringBuilder sb = new StringBuilder("=").append(funcName).append('(');
+          for (int j = 0; j < numArgs; j++) {
+            Object arg = argCols[j][start+i];
+            vals[i][j] = arg;    // a null argument's cell is not used
+            if (j > 0)
+              sb.append(';');
+            sb.append((arg == null) ? emptyCell : getCellStr(j, i));
+          }
+          formulas[i][0] = sb.append(')').toString();
+        }
+        SheetWriter.writeLiterals(getCellRange(sheet, 0, 0, numArgs-1, n-1), vals);
+                  // as callFun(), strings are text even if they start with "="
+
+        // the formulae go in column numArgs, and their results are read back
+        XCellRange resRange = getCellRange(sheet, numArgs, 0, numArgs, n-1);
+        Lo.qi(XCellRangeFormula.class, resRange).setFormulaArray(formulas);
+        Object[][] res = getCellRangeArray(resRange);
+        for (int i = 0; i < n; i++)
+          results[start+i] = res[i][0];
+      }
+    }
+    finally {
+      Lo.closeDoc(scratchDoc);
+    }
+    return results;
+  }  // end of callFunBatch()
+
+
+
+  private static boolean hasArrayArg(Object[][] argCols)
+  {
+    for (Object[] col : argCols)
+      for (Object arg : col)
+        if ((arg != null) && arg.getClass().isArray())
+          return true;
+    return false;
+  }  // end of hasArrayArg()
+
+
+
+  private static XSpreadsheetDocument createScratchDoc()
+  /* create a hidden scratch document in the current office connection;
+     the caller closes it. It is loaded directly, rather than with 
+     Lo.createDoc(), so Lo's document factory is not changed. */
+  {
+    if (Lo.getContext() == null) {
+      System.out.println("No office connection found");
+      return null;
+    }
+    try {
+      XComponentLoader loader = Lo.qi(XComponentLoader.class, Lo.getDesktop());
+      XComponent comp = loader.loadComponentFromURL("private:factory/scalc", "_blank", 0,
+                                            Props.makeProps("Hidden", true));
+      return Lo.qi(XSpreadsheetDocument.class, comp);
+    }
+    catch (Exception e) {
+      System.out.println("Could not create a scratch document: " + e);
+      return null;
+    }
+  }  // end of createScratchDoc()
+
+
+
+
   public static String[] getFunctionNames()
   {
    XFunctionDescriptions funcsDesc = 
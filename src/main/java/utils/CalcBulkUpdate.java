@@ -0,0 +1,91 @@
+// CalcBulkUpdate.java
+
+/* A scope for large changes to a spreadsheet document. While it is
+   open, Calc does not repaint its views, recalculate formulae, or
+   record undo actions after each change. When it is closed, these are
+   restored, and the document is recalculated once.
+
+   Typical use:
+     CalcBulkUpdate bulk = new CalcBulkUpdate(doc);
+     try {
+       Calc.setArray(sheet, "A1", vals);
+       ...
+     }
+     finally {
+       bulk.close();
+     }
+
+   Scopes may be nested; the document is only recalculated if
+   automatic calculation was on when the scope was opened.
+*/
+
+package utils;
+
+import com.sun.star.document.*;
+import com.sun.star.frame.*;
+import com.sun.star.sheet.*;
+
+
+
+public class CalcBulkUpdate implements AutoCloseable
+{
+  private XModel model;
+  private XActionLockable actionLock;
+  private XCalculatable calc;
+  private XUndoManager undoMgr;
+  private boolean wasAutoCalc = false;
+  private boolean isClosed = false;
+
+
+
+  public CalcBulkUpdate(XSpreadsheetDocument doc)
+  {
+    model = Lo.qi(XModel.class, doc);
+    if (model != null)
+      model.lockControllers();    // no repaints
+
+    actionLock = Lo.qi(XActionLockable.class, doc);
+    if (actionLock != null)
+      actionLock.addActionLock();
+
+    calc = Lo.qi(XCalculatable.class, doc);
+    if (calc != null) {
+      wasAutoCalc = calc.isAutomaticCalculationEnabled();
+      if (wasAutoCalc)
+        calc.enableAutomaticCalculation(false);
+    }
+
+    XUndoManagerSupplier ums = Lo.qi(XUndoManagerSupplier.class, doc);
+    if (ums != null) {
+      undoMgr = ums.getUndoManager();
+      undoMgr.lock();    // no undo actions are recorded
+    }
+  }  // end of CalcBulkUpdate()
+
+
+
+  public void close()
+  // undo the locks in reverse order, then recalculate once
+  {
+    if (isClosed)
+      return;
+    isClosed = true;
+    try {
+      if (undoMgr != null)
+        undoMgr.unlock();
+    }
+    catch(java.lang.Exception e)
+    {  System.out.println("Could not unlock undo manager: " + e);  }
+
+    if (calc != null && wasAutoCalc) {
+      calc.enableAutomaticCalculation(true);
+      calc.calculateAll();
+    }
+
+    if (actionLock != null)
+      actionLock.removeActionLock();
+    if (model != null)
+      model.unlockControllers();
+  }  // end of close()
+
+}  // end of CalcBulkUpdate class
@@ -0,0 +1,437 @@
+// CalcModel.java
+
+/* Uses a spreadsheet as a function: the values of its input cells
+   are set, the document is recalculated, and the values of its output
+   cells are read.
+
+   Each office in an OfficePool loads its own copy of the workbook
+   once (and again if the office is restarted or recycled), so several
+   evaluations run at the same time. Automatic calculation is turned
+   off in the copies, and each evaluation recalculates once, after
+   all its inputs have been written.
+
+   Inputs and outputs are named by cell ("B2" on the first sheet, or 
+   "Sheet1.B2"), or by a named range in the workbook (its top-left
+   cell is used). If the inputs (or outputs) are next to each other
+   in a column or row, they are written (or read) as one block.
+
+   Results are remembered in a bounded cache, keyed by the input
+   values, which drops the least recently used results when full.
+
+   Typical use:
+     CalcModel model = new CalcModel(pool, "pricing.ods",
+                  new String[] {"Inputs.B2", "Inputs.B3"}, 
+                  new String[] {"Price", "Margin"});
+     double[] outs = model.evaluate(new double[] {100, 0.25});
+     ...
+     model.close();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.star.lang.*;
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class CalcModel implements AutoCloseable
+{
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+
+  private final OfficePool pool;
+  private final String fnm;
+  private final String[] inputNames, outputNames;
+
+  // each office's copy of the workbook
+  private final PerOfficeDoc<LoadedModel> models;
+
+  private final LinkedHashMap<Inputs, double[]> cache;
+  private final AtomicLong numHits = new AtomicLong(0);
+  private final AtomicLong numEvals = new AtomicLong(0);
+  private final AtomicLong numFailures = new AtomicLong(0);
+
+
+
+  public CalcModel(OfficePool pool, String fnm, String[] inputNames, String[] outputNames)
+  {  this(pool, fnm, inputNames, outputNames, DEFAULT_CACHE_SIZE);  }
+
+
+  public CalcModel(OfficePool pool, String fnm, String[] inputNames, 
+                              String[] outputNames, final int cacheSize)
+  {
+    this.pool = pool;
+    this.fnm = fnm;
+    this.inputNames = inputNames.clone();
+    this.outputNames = outputNames.clone();
+
+    cache = new LinkedHashMap<Inputs, double[]>(16, 0.75f, true) {   // access order
+      protected boolean removeEldestEntry(Map.Entry<Inputs, double[]> eldest)
+      {  return size() > cacheSize;  }
+    };
+
+    models = new PerOfficeDoc<LoadedModel>(fnm, false, new DocOpener<LoadedModel>() {
+      public LoadedModel open(XComponent comp, OfficeConnection conn)
+      {
+        XSpreadsheetDocument doc = Calc.getSSDoc(comp);
+        if (doc == null)
+          return null;
+        LoadedModel model = new LoadedModel(doc);
+        return model.findCells() ? model : null;
+      }
+    });
+  }  // end of CalcModel()
+
+
+
+  public String[] getInputNames()
+  {  return inputNames.clone();  }
+
+  public String[] getOutputNames()
+  {  return outputNames.clone();  }
+
+  public OfficePool getPool()
+  {  return pool;  }
+
+
+
+  // ------------------------- evaluation ----------------------------------
+
+
+  public double[] evaluate(double[] inputs)
+  // returns null if the evaluation failed
+  {  return evaluate(inputs, true);  }
+
+
+
+  public double[] evaluate(double[] inputs, boolean useCache)
+  /* without the cache, results are neither looked up nor stored (e.g.
+     for sweeps, whose inputs are rarely repeated) */
+  {
+    if (inputs.length != inputNames.length) {
+      System.out.println("Expected " + inputNames.length + " inputs, not " + inputs.length);
+      return null;
+    }
+    Inputs key = new Inputs(inputs);
+    double[] outputs = useCache ? getCached(key) : null;
+    if (outputs != null) {
+      numHits.incrementAndGet();
+      return outputs.clone();
+    }
+
+    outputs = pool.run(makeJob(key.vals), true);
+    if (outputs == null) {
+      numFailures.incrementAndGet();
+      return null;
+    }
+    if (useCache) {
+      synchronized(cache) {
+        cache.put(key, outputs);
+      }
+    }
+    return outputs.clone();
+  }  // end of evaluate()
+
+
+
+  public List<double[]> evaluateAll(List<double[]> inputsList)
+  /* evaluate each input vector, with as many evaluations at once as
+     there are offices; results are in input order (null if failed) */
+  {
+    ExecutorService exec = Executors.newFixedThreadPool( Math.max(1, pool.size()));
+    ArrayList<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+    ArrayList<double[]> results = new ArrayList<double[]>();
+    try {
+      for (final double[] inputs : inputsList) {
+        futures.add( exec.submit(new Callable<double[]>() {
+          public double[] call()
+          {  return evaluate(inputs);  }
+        }));
+      }
+      for (Future<double[]> f : futures) {
+        try {
+          results.add(f.get());
+        }
+        catch (ExecutionException e) {
+          System.out.println("Evaluation failed: " + e.getCause());
+          results.add(null);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      exec.shutdownNow();
+    }
+    return results;
+  }  // end of evaluateAll()
+
+
+
+  private double[] getCached(Inputs key)
+  {
+    synchronized(cache) {
+      return cache.get(key);
+    }
+  }
+
+
+
+  private OfficeJob<double[]> makeJob(final double[] inputs)
+  {
+    return new OfficeJob<double[]>() {
+      public double[] run(OfficeConnection conn)
+      {
+        LoadedModel model = getModel(conn);
+        return (model == null) ? null : model.evaluate(inputs);
+      }
+    };
+  }  // end of makeJob()
+
+
+
+  LoadedModel getModel(OfficeConnection conn)
+  // this office's copy of the workbook (see PerOfficeDoc)
+  {  return models.get(conn);  }
+
+
+
+  // ----------------------- per-office model -------------------------------
+
+
+  class LoadedModel
+  {
+    final XSpreadsheetDocument doc;
+    final XCalculatable calc;
+    XCell[] inCells, outCells;
+    XCellRangeData inBlock, outBlock;    // non-null if the cells are in a line
+    boolean isInColumn, isOutColumn;
+
+
+    LoadedModel(XSpreadsheetDocument doc)
+    {
+      this.doc = doc;
+      calc = Lo.qi(XCalculatable.class, doc);
+      calc.enableAutomaticCalculation(false);   // recalculate once per evaluation
+    }
+
+
+    boolean findCells()
+    {
+      inCells = new XCell[inputNames.length];
+      for (int i = 0; i < inputNames.length; i++) {
+        inCells[i] = findCell(doc, inputNames[i]);
+        if (inCells[i] == null)
+          return false;
+      }
+      outCells = new XCell[outputNames.length];
+      for (int i = 0; i < outputNames.length; i++) {
+        outCells[i] = findCell(doc, outputNames[i]);
+        if (outCells[i] == null)
+          return false;
+      }
+
+      inBlock = getLine(inCells);
+      isInColumn = isColumn(inCells);
+      outBlock = getLine(outCells);
+      isOutColumn = isColumn(outCells);
+      return true;
+    }  // end of findCells()
+
+
+    double[] evaluate(double[] inputs)
+    {
+      setInputs(inputs);
+      calc.calculate();
+      numEvals.incrementAndGet();
+      return getOutputs();
+    }
+
+
+    void setInputs(double[] inputs)
+    // one block write if the inputs are in a line, else one write per cell
+    {
+      if (inBlock != null) {
+        Object[][] vals = isInColumn ? new Object[inputs.length][1] :
+                                       new Object[1][inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+          if (isInColumn)
+            vals[i][0] = inputs[i];
+          else
+            vals[0][i] = inputs[i];
+        }
+        inBlock.setDataArray(vals);
+      }
+      else {
+        for (int i = 0; i < inCells.length; i++)
+          inCells[i].setValue(inputs[i]);
+      }
+    }  // end of setInputs()
+
+
+    double[] getOutputs()
+    // non-numeric outputs (text, errors) are NaN
+    {
+      double[] outputs = new double[outCells.length];
+      if (outBlock != null) {
+        Object[][] vals = outBlock.getDataArray();
+        for (int i = 0; i < outputs.length; i++)
+          outputs[i] = toDouble(isOutColumn ? vals[i][0] : vals[0][i]);
+      }
+      else {
+        for (int i = 0; i < outCells.length; i++)
+          outputs[i] = toDouble( Lo.qi(XCellRangeData.class, 
+                                       outCells[i]).getDataArray()[0][0]);
+      }
+      return outputs;
+    }  // end of getOutputs()
+  }  // end of LoadedModel class
+
+
+
+  private static double toDouble(Object o)
+  {  return (o instanceof Double) ? (Double) o : Double.NaN;  }
+
+
+
+  private static XCellRangeData getLine(XCell[] cells)
+  /* if the cells are next to each other, in order, in one column or
+     row of one sheet, return the range holding them */
+  {
+    if (cells.length < 2)
+      return null;
+    CellAddress first = Calc.getCellAddress(cells[0]);
+    boolean isCol = true, isRow = true;
+    for (int i = 1; i < cells.length; i++) {
+      CellAddress addr = Calc.getCellAddress(cells[i]);
+      if (addr.Sheet != first.Sheet)
+        return null;
+      isCol = isCol && (addr.Column == first.Column) && (addr.Row == first.Row + i);
+      isRow = isRow && (addr.Row == first.Row) && (addr.Column == first.Column + i);
+    }
+    if (!isCol && !isRow)
+      return null;
+    XSpreadsheet sheet = Lo.qi(XSpreadsheet.class, 
+           Lo.qi(XSheetCellRange.class, cells[0]).getSpreadsheet());
+    XCellRange range = isCol ? 
+        Calc.getCellRange(sheet, first.Column, first.Row, first.Column, first.Row + cells.length-1) :
+        Calc.getCellRange(sheet, first.Column, first.Row, first.Column + cells.length-1, first.Row);
+    return Lo.qi(XCellRangeData.class, range);
+  }  // end of getLine()
+
+
+
+  private static boolean isColumn(XCell[] cells)
+  {  return (cells.length > 1) && (Calc.getCellAddress(cells[0]).Column == 
+                                   Calc.getCellAddress(cells[1]).Column);  }
+
+
+
+  public static XCell findCell(XSpreadsheetDocument doc, String name)
+  /* the cell called name, which may be a named range, or a cell name
+     (with or without a sheet). Named ranges are tried first, since
+     names like "Price1" or "Rate2024" also parse as cell names, but
+     with columns beyond the end of the sheet */
+  {
+    XNamedRanges namedRanges = Lo.qi(XNamedRanges.class, 
+                                Props.getProperty(doc, "NamedRanges"));
+    if ((namedRanges != null) && namedRanges.hasByName(name)) {
+      try {
+        XCellRangeReferrer referrer = Lo.qi(XCellRangeReferrer.class, 
+                                              namedRanges.getByName(name));
+        return Calc.getCell(referrer.getReferredCells(), 0, 0);
+      }
+      catch (com.sun.star.uno.Exception e) {}
+    }
+
+    int dotPos = name.lastIndexOf('.');
+    String cellName = name.substring(dotPos+1);
+    long ref = CellRef.parse(cellName);
+    if (ref != CellRef.NONE) {
+      XSpreadsheet sheet;
+      if (dotPos == -1)
+        sheet = Calc.getSheet(doc, 0);
+      else {
+        String sheetName = name.substring(0, dotPos).replace("$", "").replace("'", "");
+        sheet = Calc.getSheet(doc, sheetName);
+      }
+      if (sheet != null) {
+        try {
+          return sheet.getCellByPosition(CellRef.column(ref), CellRef.row(ref));
+        }
+        catch (com.sun.star.lang.IndexOutOfBoundsException e) {}   // not a cell
+      }
+    }
+    System.out.println("Could not find cell \"" + name + "\"");
+    return null;
+  }  // end of findCell()
+
+
+
+  // --------------------------- cache key -----------------------------------
+
+
+  private static class Inputs
+  {
+    final double[] vals;
+    final int hash;
+
+    Inputs(double[] vals)
+    {  this.vals = vals.clone();
+       hash = Arrays.hashCode(this.vals);
+    }
+
+    public int hashCode()
+    {  return hash;  }
+
+    public boolean equals(Object o)
+    {  return (o instanceof Inputs) && Arrays.equals(vals, ((Inputs) o).vals);  }
+  }  // end of Inputs class
+
+
+
+  // ------------------------------ stats -------------------------------------
+
+
+  public long getCacheHitCount()
+  {  return numHits.get();  }
+
+  public long getEvaluationCount()   // evaluations done by an office
+  {  return numEvals.get();  }
+
+  public long getFailureCount()
+  {  return numFailures.get();  }
+
+  public int getCacheSize()
+  {  synchronized(cache) {
+       return cache.size();
+     }
+  }
+
+  public void clearCache()
+  {  synchronized(cache) {
+       cache.clear();
+     }
+  }
+
+
+  public void printStats()
+  {
+    System.out.println("Calc model " + fnm + ": evaluations: " + numEvals.get() +
+                       "; cache hits: " + numHits.get() + 
+                       "; failures: " + numFailures.get() + 
+                       "; cached: " + getCacheSize());
+  }
+
+
+
+  public void close()
+  // close the workbook copies; the pool is left running
+  {  models.close();  }
+
+}  // end of CalcModel class
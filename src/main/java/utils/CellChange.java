@@ -0,0 +1,46 @@
+// CellChange.java
+
+/* A change to one cell's value, as reported by SheetChangeFeed.
+   An emptied cell has a newValue of "", and a filled empty cell has
+   an oldValue of "".
+*/
+
+package utils;
+
+
+
+public class CellChange
+{
+  private final int column, row;
+  private final Object oldValue, newValue;     // Double or String
+
+
+  public CellChange(int column, int row, Object oldValue, Object newValue)
+  {
+    this.column = column;
+    this.row = row;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+  }
+
+
+  public int getColumn()
+  {  return column;  }
+
+  public int getRow()
+  {  return row;  }
+
+  public String getCellName()
+  {  return CellRef.name(column, row);  }
+
+  public Object getOldValue()
+  {  return oldValue;  }
+
+  public Object getNewValue()
+  {  return newValue;  }
+
+
+  public String toString()
+  {  return getCellName() + ": " + oldValue + " -> " + newValue;  }
+
+}  // end of CellChange class
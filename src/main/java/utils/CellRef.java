@@ -0,0 +1,173 @@
+// CellRef.java
+
+/* Parsing of cell names, such as "B3", "$B$3", "Sheet1.B3",
+   "$'My Sheet'.$B$3", "Sheet1!B3" and "R3C2", without using regular
+   expressions or creating objects.
+
+   A parsed cell is returned as a long holding its 0-based column
+   (upper 32 bits) and row (lower 32 bits), or NONE if the name
+   cannot be parsed. Use column() and row() to unpack it.
+
+   Column names are stored in a table as they are created, so
+   name() does not rebuild them on each call.
+*/
+
+package utils;
+
+
+
+public class CellRef
+{
+  public static final long NONE = -1L;
+
+  public static final int MAX_TABLE_COLUMNS = 16384;   // A .. XFD
+
+  private static final String[] colNames = new String[MAX_TABLE_COLUMNS];
+        // filled in as names are needed
+
+
+
+  public static long pack(int column, int row)
+  {  return ((long) column << 32) | (row & 0xFFFFFFFFL);  }
+
+  public static int column(long ref)
+  {  return (int)(ref >>> 32);  }
+
+  public static int row(long ref)
+  {  return (int) ref;  }
+
+
+
+  public static long parse(CharSequence s)
+  {  return (s == null) ? NONE : parse(s, 0, s.length());  }
+
+
+
+  public static long parse(CharSequence s, int start, int end)
+  /* parse the cell name in s[start, end), skipping any sheet name
+     before a '.' or '!' */
+  {
+    for (int i = end-1; i >= start; i--) {
+      char ch = s.charAt(i);
+      if ((ch == '.') || (ch == '!')) {
+        start = i+1;
+        break;
+      }
+    }
+    if (start >= end)
+      return NONE;
+
+    long ref = parseR1C1(s, start, end);
+    return (ref != NONE) ? ref : parseA1(s, start, end);
+  }  // end of parse()
+
+
+
+  private static long parseA1(CharSequence s, int i, int end)
+  // [$]letters[$]digits
+  {
+    if (s.charAt(i) == '$')
+      i++;
+    int col = 0;
+    int numLetters = 0;
+    while (i < end) {
+      int ch = s.charAt(i) | 0x20;    // to lowercase (for letters)
+      if ((ch < 'a') || (ch > 'z'))
+        break;
+      if (++numLetters > 6)    // column numbers would overflow
+        return NONE;
+      col = col*26 + (ch - 'a' + 1);
+      i++;
+    }
+    if (numLetters == 0)
+      return NONE;
+
+    if ((i < end) && (s.charAt(i) == '$'))
+      i++;
+    int row = parseNumber(s, i, end);
+    if (row < 1)
+      return NONE;
+    return pack(col-1, row-1);
+  }  // end of parseA1()
+
+
+
+  private static long parseR1C1(CharSequence s, int i, int end)
+  // R<row>C<column>, both 1-based
+  {
+    if ((s.charAt(i) | 0x20) != 'r')
+      return NONE;
+    i++;
+    int cPos = i;
+    while ((cPos < end) && Character.isDigit(s.charAt(cPos)))
+      cPos++;
+    if ((cPos == i) || (cPos >= end) || ((s.charAt(cPos) | 0x20) != 'c'))
+      return NONE;    // e.g. "R1" is column R, row 1
+    int row = parseNumber(s, i, cPos);
+    int col = parseNumber(s, cPos+1, end);
+    if ((row < 1) || (col < 1))
+      return NONE;
+    return pack(col-1, row-1);
+  }  // end of parseR1C1()
+
+
+
+  private static int parseNumber(CharSequence s, int i, int end)
+  // returns -1 if s[i, end) is not all digits, or is too long
+  {
+    if ((i >= end) || (end - i > 9))
+      return -1;
+    int n = 0;
+    for (; i < end; i++) {
+      char ch = s.charAt(i);
+      if ((ch < '0') || (ch > '9'))
+        return -1;
+      n = n*10 + (ch - '0');
+    }
+    return n;
+  }  // end of parseNumber()
+
+
+
+  // ------------------------ names --------------------------------
+
+
+  public static String columnName(int column)
+  /* 0 is A; they run A-Z, AA-AZ, BA-BZ, ..., ZZ, AAA, ...
+     i.e. a bijective base 26 number */
+  {
+    if (column < 0)
+      return null;
+    if (column >= MAX_TABLE_COLUMNS)
+      return makeColumnName(column);
+    String nm = colNames[column];
+    if (nm == null) {
+      nm = makeColumnName(column);
+      colNames[column] = nm;   // a race only means building the name twice
+    }
+    return nm;
+  }  // end of columnName()
+
+
+
+  private static String makeColumnName(int column)
+  {
+    char[] buf = new char[7];
+    int pos = buf.length;
+    long n = column;
+    while (n >= 0) {
+      buf[--pos] = (char) ('A' + n%26);
+      n = n/26 - 1;
+    }
+    return new String(buf, pos, buf.length - pos);
+  }  // end of makeColumnName()
+
+
+
+  public static String name(int column, int row)
+  {  return columnName(column) + (row + 1);  }
+
+  public static String name(long ref)
+  {  return name(column(ref), row(ref));  }
+
+}  // end of CellRef class
@@ -0,0 +1,187 @@
+// ChunkedXInputStream.java
+
+/* An XInputStream and XSeekable for passing document data to office
+   via the "InputStream" MediaDescriptor property (see Lo.openDoc()).
+
+   Office's import filters and type detection need to seek, so the 
+   data is held in memory as a list of chunks. A byte[] or ByteBuffer
+   is used directly, without copying; a java.io.InputStream is read
+   into chunks taken from a BufferPool, which are returned to the 
+   pool by release().
+
+   Office keeps the stream of a loaded document, and reads parts of it
+   later (e.g. images, or unchanged parts copied when storing), so 
+   release() must not be called until the document has been closed;
+   Lo.openDoc() calls it when the document is disposed. closeInput()
+   does nothing, since office sometimes closes a stream and then reads
+   it again (e.g. after type detection).
+*/
+
+package utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.sun.star.io.*;
+
+
+
+public class ChunkedXInputStream implements XInputStream, XSeekable
+{
+  private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+  private final BufferPool pool;    // null if the chunks are not pooled
+  private long length = 0;
+  private long position = 0;
+
+
+
+  public ChunkedXInputStream(byte[] bytes)
+  {
+    pool = null;
+    chunks.add( ByteBuffer.wrap(bytes) );
+    length = bytes.length;
+  }  // end of ChunkedXInputStream()
+
+
+
+  public ChunkedXInputStream(ByteBuffer buf)
+  // use the bytes between buf's position and limit
+  {
+    pool = null;
+    chunks.add( buf.slice() );
+    length = buf.remaining();
+  }  // end of ChunkedXInputStream()
+
+
+
+  public ChunkedXInputStream(InputStream is, BufferPool pool) 
+                                        throws java.io.IOException
+  // read all of is into pooled chunks
+  {
+    this.pool = pool;
+    while (true) {
+      byte[] chunk = pool.take();
+      int len = 0;
+      int n;
+      while ((len < chunk.length) && 
+             ((n = is.read(chunk, len, chunk.length - len)) != -1))
+        len += n;
+      if (len == 0) {
+        pool.give(chunk);
+        break;
+      }
+      ByteBuffer bb = ByteBuffer.wrap(chunk);
+      bb.limit(len);
+      chunks.add(bb);
+      length += len;
+      if (len < chunk.length)
+        break;    // end of stream reached
+    }
+  }  // end of ChunkedXInputStream()
+
+
+
+  // ----------------------- XInputStream ------------------------
+
+
+  public synchronized int readBytes(byte[][] data, int numBytes) 
+                                          throws com.sun.star.io.IOException
+  {
+    if (numBytes < 0)
+      throw new BufferSizeExceededException("Negative read size: " + numBytes);
+    int num = (int) Math.min(numBytes, length - position);
+    if ((data[0] == null) || (data[0].length != num))
+      data[0] = new byte[num];
+    copyTo(data[0], num);
+    return num;
+  }  // end of readBytes()
+
+
+
+  public int readSomeBytes(byte[][] data, int maxBytes) 
+                                          throws com.sun.star.io.IOException
+  {  return readBytes(data, maxBytes);  }     // all the data is in memory
+
+
+
+  public synchronized void skipBytes(int numBytes) 
+                                          throws com.sun.star.io.IOException
+  {
+    if (numBytes < 0)
+      throw new BufferSizeExceededException("Negative skip size: " + numBytes);
+    position = Math.min(position + numBytes, length);
+  }  // end of skipBytes()
+
+
+
+  public synchronized int available()
+  {  return (int) Math.min(Integer.MAX_VALUE, length - position);  }
+
+
+
+  public void closeInput()
+  {}   // the chunks are kept until release(), since office may still read them
+
+
+
+  public synchronized void release()
+  /* give pooled chunks back; only call this when office no longer
+     has the stream (i.e. its document has been closed) */
+  {
+    if (pool != null) {
+      for (ByteBuffer bb : chunks)
+        pool.give(bb.array());
+    }
+    chunks.clear();
+    length = 0;
+    position = 0;
+  }  // end of release()
+
+
+
+  // ----------------------- XSeekable ------------------------
+
+
+  public synchronized void seek(long pos) 
+                   throws com.sun.star.lang.IllegalArgumentException
+  {
+    if ((pos < 0) || (pos > length))
+      throw new com.sun.star.lang.IllegalArgumentException(
+                           "Seek position " + pos + " is out of range", this, (short)0);
+    position = pos;
+  }  // end of seek()
+
+
+  public synchronized long getPosition()
+  {  return position;  }
+
+
+  public synchronized long getLength()
+  {  return length;  }
+
+
+
+  private void copyTo(byte[] dest, int num)
+  // copy num bytes starting at the current position into dest
+  {
+    int destPos = 0;
+    long chunkStart = 0;
+    for (ByteBuffer bb : chunks) {
+      int chunkLen = bb.limit();
+      if (position < chunkStart + chunkLen) {
+        int offset = (int)(position - chunkStart);
+        int n = Math.min(chunkLen - offset, num - destPos);
+        ByteBuffer src = bb.duplicate();
+        src.position(offset);
+        src.get(dest, destPos, n);
+        destPos += n;
+        position += n;
+        if (destPos == num)
+          break;
+      }
+      chunkStart += chunkLen;
+    }
+  }  // end of copyTo()
+
+}  // end of ChunkedXInputStream class
@@ -0,0 +1,108 @@
+// ChunkedXOutputStream.java
+
+/* An XOutputStream for receiving a document from office via the
+   "OutputStream" MediaDescriptor property (see Lo.storeDocFormat()).
+   Office writes lots of small pieces, so they are collected in a 
+   pooled chunk and written to the java.io.OutputStream a chunk at a 
+   time.
+*/
+
+package utils;
+
+import java.io.OutputStream;
+
+import com.sun.star.io.*;
+
+
+
+public class ChunkedXOutputStream implements XOutputStream
+{
+  private final OutputStream os;
+  private final BufferPool pool;
+  private byte[] chunk;
+  private int len = 0;     // number of bytes used in chunk
+
+
+
+  public ChunkedXOutputStream(OutputStream os, BufferPool pool)
+  {
+    this.os = os;
+    this.pool = pool;
+    chunk = pool.take();
+  }  // end of ChunkedXOutputStream()
+
+
+
+  public synchronized void writeBytes(byte[] data) throws com.sun.star.io.IOException
+  {
+    if (chunk == null)
+      throw new NotConnectedException("Output stream is closed");
+    try {
+      if (data.length >= chunk.length) {   // too big to buffer
+        writeChunk();
+        os.write(data);
+        return;
+      }
+      int pos = 0;
+      while (pos < data.length) {
+        int n = Math.min(chunk.length - len, data.length - pos);
+        System.arraycopy(data, pos, chunk, len, n);
+        len += n;
+        pos += n;
+        if (len == chunk.length)
+          writeChunk();
+      }
+    }
+    catch (java.io.IOException e) {
+      throw new com.sun.star.io.IOException("Write failed: " + e);
+    }
+  }  // end of writeBytes()
+
+
+
+  public synchronized void flush() throws com.sun.star.io.IOException
+  {
+    try {
+      writeChunk();
+      os.flush();
+    }
+    catch (java.io.IOException e) {
+      throw new com.sun.star.io.IOException("Flush failed: " + e);
+    }
+  }  // end of flush()
+
+
+
+  public synchronized void closeOutput() throws com.sun.star.io.IOException
+  // flush, and give the chunk back; the OutputStream is left open
+  {
+    if (chunk == null)
+      return;
+    flush();
+    pool.give(chunk);
+    chunk = null;
+  }  // end of closeOutput()
+
+
+
+  public synchronized void release()
+  // give the chunk back without writing it (e.g. after a failed store)
+  {
+    if (chunk == null)
+      return;
+    pool.give(chunk);
+    chunk = null;
+    len = 0;
+  }  // end of release()
+
+
+
+  private void writeChunk() throws java.io.IOException
+  {
+    if (len > 0) {
+      os.write(chunk, 0, len);
+      len = 0;
+    }
+  }  // end of writeChunk()
+
+}  // end of ChunkedXOutputStream class
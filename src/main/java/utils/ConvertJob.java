@@ -0,0 +1,86 @@
+// ConvertJob.java
+
+/* One document conversion for a Converter: load inFnm (hidden), and 
+   store it as outFnm using an office filter and optional filter
+   options, then close it.
+
+   If no filter is given then one is chosen from outFnm's extension 
+   and the document's type, as in Lo.storeDoc().
+*/
+
+package utils;
+
+import com.sun.star.frame.*;
+import com.sun.star.lang.*;
+
+
+
+public class ConvertJob implements OfficeJob<Boolean>
+{
+  private final String inFnm, outFnm;
+  private final String format;          // office filter name, or null
+  private final String filterOptions;   // may be null
+
+
+  public ConvertJob(String inFnm, String outFnm)
+  {  this(inFnm, outFnm, null, null);  }
+
+
+  public ConvertJob(String inFnm, String outFnm, String format, String filterOptions)
+  {
+    this.inFnm = inFnm;
+    this.outFnm = outFnm;
+    this.format = format;
+    this.filterOptions = filterOptions;
+  }  // end of ConvertJob()
+
+
+
+  public String getInput()
+  {  return inFnm;  }
+
+  public String getOutput()
+  {  return outFnm;  }
+
+  public String getFormat()
+  {  return format;  }
+
+  public String getFilterOptions()
+  {  return filterOptions;  }
+
+
+  public String getFormatPair()
+  // e.g. "docx->pdf"; used to group conversion statistics
+  {  
+    String outType = (format != null) ? format : Info.getExt(outFnm);
+    return Info.getExt(inFnm) + "->" + outType;
+  }
+
+
+
+  public Boolean run(OfficeConnection conn)
+  // returns null if the conversion failed
+  {
+    XComponent doc = Lo.openDoc(inFnm, conn.getLoader());
+    if (doc == null)
+      return null;
+    try {
+      String filter = format;
+      if (filter == null)
+        filter = Lo.ext2Format(Info.reportDocType(doc), Info.getExt(outFnm));
+      XStorable store = Lo.qi(XStorable.class, doc);
+      if (!Lo.storeDocFormat(store, outFnm, filter, null, filterOptions))
+        return null;
+      return Boolean.TRUE;
+    }
+    finally {
+      Lo.closeDoc(doc);
+    }
+  }  // end of run()
+
+
+
+  public String toString()
+  {  return inFnm + " --> " + outFnm;  }
+
+}  // end of ConvertJob class
@@ -0,0 +1,200 @@
+// Converter.java
+
+/* Converts a stream of documents concurrently using an OfficePool.
+
+   Jobs are queued in a bounded queue (submit() blocks when it is
+   full), and run by one thread per office. A job that takes longer
+   than the timeout has its office killed, which makes the blocked
+   UNO call fail; the office is restarted, but the job is not retried,
+   since it would most likely hang again. A job cut short by an office
+   crash is retried (see OfficeConnection.execute()).
+
+   Latencies are recorded for each format pair (e.g. "docx->pdf"), and
+   printReport() lists the throughput, p50 and p99 latencies.
+
+   Typical use:
+     OfficePool pool = new OfficePool(4, "/tmp/officePool");
+     Converter conv = new Converter(pool, 100, 60000);
+     for (String fnm : fnms)
+       conv.submit( new ConvertJob(fnm, fnm + ".pdf") );
+     conv.shutdown();
+     conv.printReport();
+     pool.close();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+public class Converter
+{
+  private final OfficePool pool;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService watchdog;
+  private final long jobTimeout;     // ms; 0 means no timeout
+
+  private final LatencyStats stats = new LatencyStats();
+  private final AtomicLong numTimeouts = new AtomicLong(0);
+
+
+
+  public Converter(OfficePool pool, int queueSize, long jobTimeout)
+  {
+    this.pool = pool;
+    this.jobTimeout = jobTimeout;
+
+    int numThreads = Math.max(1, pool.size());
+    executor = new ThreadPoolExecutor(numThreads, numThreads, 
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    new RejectedExecutionHandler() {
+                      public void rejectedExecution(Runnable r, ThreadPoolExecutor ex)
+                      // block the submitter until there is space in the queue
+                      {
+                        if (ex.isShutdown())
+                          throw new RejectedExecutionException("Converter is shut down");
+                        try {
+                          ex.getQueue().put(r);
+                        }
+                        catch (InterruptedException e) {
+                          Thread.currentThread().interrupt();
+                          throw new RejectedExecutionException(e);
+                        }
+                      }
+                    });
+
+    watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                 public Thread newThread(Runnable r)
+                 { Thread t = new Thread(r, "Converter watchdog");
+                   t.setDaemon(true);
+                   return t;
+                 }
+               });
+  }  // end of Converter()
+
+
+
+  public Future<Boolean> submit(final ConvertJob job)
+  // queue the job; blocks while the queue is full
+  {
+    return executor.submit(new Callable<Boolean>() {
+      public Boolean call()
+      {  return convert(job);  }
+    });
+  }  // end of submit()
+
+
+
+  public int convertAll(Iterable<ConvertJob> jobs)
+  // convert all the jobs, and return the number that succeeded
+  {
+    ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (ConvertJob job : jobs)
+      results.add( submit(job) );
+
+    int numConverted = 0;
+    for (Future<Boolean> res : results) {
+      try {
+        if (res.get())
+          numConverted++;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      catch (ExecutionException e)
+      {  System.out.println("Conversion failed: " + e.getCause());  }
+    }
+    return numConverted;
+  }  // end of convertAll()
+
+
+
+  public boolean convert(ConvertJob job)
+  // convert on the calling thread, using the next idle office
+  {
+    long startTime = System.currentTimeMillis();
+    AtomicBoolean isTimedOut = new AtomicBoolean(false);
+    Boolean res = pool.run(timedJob(job, isTimedOut), true);  // crashes can be retried
+    boolean isConverted = (res != null);
+    stats.record(job.getFormatPair(), System.currentTimeMillis() - startTime, isConverted);
+    if (!isConverted)
+      System.out.println("Could not convert " + job + 
+                               (isTimedOut.get() ? " (timed out)" : ""));
+    return isConverted;
+  }  // end of convert()
+
+
+
+  private OfficeJob<Boolean> timedJob(final ConvertJob job, 
+                                      final AtomicBoolean isTimedOut)
+  /* kill the job's office if the job takes too long; a timed-out job
+     fails when execute() retries it, instead of running again */
+  {
+    return new OfficeJob<Boolean>() {
+      public Boolean run(final OfficeConnection conn) throws TimeoutException
+      {
+        if (isTimedOut.get())
+          throw new TimeoutException("Timed out converting " + job);
+        ScheduledFuture<?> timer = null;
+        if (jobTimeout > 0) {
+          timer = watchdog.schedule(new Runnable() {
+            public void run()
+            {
+              System.out.println(conn.getName() + ": timed out converting " + job);
+              isTimedOut.set(true);
+              numTimeouts.incrementAndGet();
+              Lo.killOffice(conn.getProcess());
+            }
+          }, jobTimeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+          return job.run(conn);
+        }
+        finally {
+          if (timer != null)
+            timer.cancel(false);
+        }
+      }
+    };
+  }  // end of timedJob()
+
+
+
+  public void shutdown()
+  // wait for the queued jobs to finish
+  {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(10, TimeUnit.SECONDS))
+        System.out.println("Waiting for " + (executor.getQueue().size() + 
+                                    executor.getActiveCount()) + " conversions");
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
+    watchdog.shutdownNow();
+  }  // end of shutdown()
+
+
+
+  public LatencyStats getStats()
+  {  return stats;  }
+
+  public long getTimeoutCount()
+  {  return numTimeouts.get();  }
+
+
+  public void printReport()
+  {
+    stats.printReport();
+    System.out.println("  timed out: " + numTimeouts.get());
+    pool.printStats();
+  }  // end of printReport()
+
+}  // end of Converter class
@@ -0,0 +1,19 @@
+// DocOpener.java
+
+/* Used by PerOfficeDoc to prepare a document that has just been
+   loaded in an office (e.g. find its cells, or turn off automatic
+   calculation). open() returns the object that PerOfficeDoc.get() 
+   hands out for that office, or null if the document cannot be used,
+   in which case PerOfficeDoc closes it. The office's connection is
+   bound to the current thread while open() runs.
+*/
+
+package utils;
+
+import com.sun.star.lang.XComponent;
+
+
+public interface DocOpener<T>
+{
+  T open(XComponent doc, OfficeConnection conn);
+}
@@ -201,7 +201,7 @@ public class Images
   public static XGraphic loadGraphicFile(String imFnm)
   {
     System.out.println("Loading XGraphic from " + imFnm);
-    XGraphicProvider gProvider =  Lo.createInstanceMCF(XGraphicProvider.class, 
+    XGraphicProvider gProvider =  Lo.createCachedMCF(XGraphicProvider.class, 
                                       "com.sun.star.graphic.GraphicProvider");
     if (gProvider == null) {
       System.out.println("Graphic Provider could not be found");
@@ -296,7 +296,7 @@ public class Images
   // imFormat can be be "gif", "png", "jpeg", "wmf", "bmp", "svg", etc)
   {
     System.out.println("Saving graphic in " + fnm);
-    XGraphicProvider gProvider =  Lo.createInstanceMCF(XGraphicProvider.class, 
+    XGraphicProvider gProvider =  Lo.createCachedMCF(XGraphicProvider.class, 
                                            "com.sun.star.graphic.GraphicProvider");
     if (gProvider == null) {
       System.out.println("Graphic Provider could not be found");
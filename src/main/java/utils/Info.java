@@ -544,7 +544,7 @@ In Office:
      detection, while the approach used looks at the file's metadata */
   {
     XTypeDetection xTypeDetect =
-         Lo.createInstanceMCF(XTypeDetection.class, "com.sun.star.document.TypeDetection");
+         Lo.createCachedMCF(XTypeDetection.class, "com.sun.star.document.TypeDetection");
     if (xTypeDetect == null) {
       System.out.println("No type detector reference");
       return null;
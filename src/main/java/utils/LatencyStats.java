@@ -0,0 +1,113 @@
+// LatencyStats.java
+
+/* Collects job latencies (in ms) grouped by a key (e.g. a format pair
+   such as "docx->pdf"), and reports the count, failures, throughput,
+   mean, p50 and p99 latency of each group. Thread-safe.
+*/
+
+package utils;
+
+import java.util.*;
+
+
+
+public class LatencyStats
+{
+  private final TreeMap<String, Group> groups = new TreeMap<String, Group>();
+  private long startTime = System.currentTimeMillis();
+
+
+
+  private static class Group
+  {
+    long[] times = new long[64];
+    int count = 0;
+    int numFailures = 0;
+
+    void add(long ms)
+    {
+      if (count == times.length)
+        times = Arrays.copyOf(times, count*2);
+      times[count++] = ms;
+    }
+  }  // end of Group class
+
+
+
+  public synchronized void reset()
+  {
+    groups.clear();
+    startTime = System.currentTimeMillis();
+  }  // end of reset()
+
+
+
+  public synchronized void record(String key, long ms, boolean isSuccess)
+  {
+    Group g = groups.get(key);
+    if (g == null) {
+      g = new Group();
+      groups.put(key, g);
+    }
+    g.add(ms);
+    if (!isSuccess)
+      g.numFailures++;
+  }  // end of record()
+
+
+
+  public synchronized int getCount(String key)
+  { Group g = groups.get(key);
+    return (g == null) ? 0 : g.count;
+  }
+
+
+  public synchronized int getFailures(String key)
+  { Group g = groups.get(key);
+    return (g == null) ? 0 : g.numFailures;
+  }
+
+
+  public synchronized long getPercentile(String key, double percent)
+  // e.g. getPercentile("docx->pdf", 99); -1 if there are no times
+  {
+    Group g = groups.get(key);
+    if ((g == null) || (g.count == 0))
+      return -1;
+    long[] sorted = Arrays.copyOf(g.times, g.count);
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(percent/100.0 * g.count) - 1;
+    return sorted[Math.max(0, Math.min(idx, g.count-1))];
+  }  // end of getPercentile()
+
+
+  public synchronized double getThroughput(String key)
+  // jobs per second since the stats were started/reset
+  {
+    double secs = (System.currentTimeMillis() - startTime)/1000.0;
+    return (secs <= 0) ? 0 : getCount(key)/secs;
+  }
+
+
+
+  public synchronized void printReport()
+  {
+    double secs = (System.currentTimeMillis() - startTime)/1000.0;
+    System.out.printf("Latencies after %.1f secs:\n", secs);
+    int total = 0;
+    for (Map.Entry<String, Group> e : groups.entrySet()) {
+      String key = e.getKey();
+      Group g = e.getValue();
+      total += g.count;
+      long sum = 0;
+      for (int i=0; i < g.count; i++)
+        sum += g.times[i];
+      System.out.printf("  %-20s n=%d  failed=%d  %.2f/s  mean=%d ms  p50=%d ms  p99=%d ms\n",
+                 key, g.count, g.numFailures, getThroughput(key), sum/g.count,
+                 getPercentile(key, 50), getPercentile(key, 99));
+    }
+    if (secs > 0)
+      System.out.printf("  total: %d jobs; %.2f jobs/s\n", total, total/secs);
+  }  // end of printReport()
+
+}  // end of LatencyStats class
@@ -94,6 +94,16 @@ public class Lo
   // connect to locally running Office via port 8100
   private static final int SOCKET_PORT = 8100;
 
+  // how long to wait for a newly started office to accept a connection
+  private static long startupDeadline = 60000;   // ms
+
+  // backoff between connection attempts while office is starting
+  private static final int MIN_CONNECT_DELAY = 50;   // ms
+  private static final int MAX_CONNECT_DELAY = 1000;
+
+  // create and close hidden docs after office starts?
+  private static boolean isPrewarming = false;
+
 
   // CLSIDs for Office documents
   // defined in <OFFICE>\officecfg\registry\data\org\openoffice\Office\Embedding.xcu
@@ -137,24 +147,77 @@ public class Lo
   private static XComponent bridgeComponent = null;
       // this is only set if office is opened via a socket
 
+  private static Process officeProcess = null;
+      // the office started by socketContext(); used by killOffice()
+
   private static boolean isOfficeTerminated = false;
 
+  // stateless services of the static connection
+  private static final ServiceCache serviceCache = new ServiceCache();
+
+  // connection leased to the current thread (e.g. from an OfficePool);
+  // when set, it replaces the static globals above
+  private static final ThreadLocal<OfficeConnection> boundConn = 
+                                          new ThreadLocal<OfficeConnection>();
+
 
 
   public static XComponentContext getContext()
-  {  return xcc;  }
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getContext() : xcc;  
+  }
 
   public static XDesktop getDesktop()
-  {  return xDesktop;  }
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getDesktop() : xDesktop;  
+  }
 
   public static XMultiComponentFactory getComponentFactory()
-  {  return mcFactory;  }
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getComponentFactory() : mcFactory;  
+  }
 
   public static XMultiServiceFactory getServiceFactory()
-  {  return msFactory;  }
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getServiceFactory() : msFactory;  
+  }
 
   public static XComponent getBridge()
-  {  return bridgeComponent;  }
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getBridge() : bridgeComponent;  
+  }
+
+
+  private static void setServiceFactory(XMultiServiceFactory msf)
+  // the document factory belongs to the bound connection, if there is one
+  { OfficeConnection conn = boundConn.get();
+    if (conn != null) {
+      conn.setServiceFactory(msf);
+      if (msf != null)
+        conn.countDoc();    // used to decide when to recycle the office
+    }
+    else
+      msFactory = msf;
+  }  // end of setServiceFactory()
+
+
+
+  // ------------- thread-bound connections ---------------
+
+
+  public static void bindConnection(OfficeConnection conn)
+  /* Make Lo (and so Calc, Write, etc.) use conn's context, desktop
+     and factories for all calls made by the current thread. */
+  {  boundConn.set(conn);  }
+
+
+  public static void unbindConnection()
+  {  boundConn.remove();  }
+
+
+  public static OfficeConnection getConnection()
+  // returns null if the thread is using the static globals
+  {  return boundConn.get();  }
 
 
 
@@ -174,14 +237,15 @@ public class Lo
      uses 'old' XMultiServiceFactory, so a document must have already been loaded/created
   */
   {
-    if (msFactory == null) {
+    XMultiServiceFactory msf = getServiceFactory();
+    if (msf == null) {
       System.out.println("No document found");
       return null;
     }
 
     T interfaceObj = null;
     try {
-      Object o = msFactory.createInstance(serviceName);     // create service component
+      Object o = msf.createInstance(serviceName);     // create service component
       interfaceObj = Lo.qi(aType, o);
            // uses bridge to obtain proxy to remote interface inside service;
            // implements casting across process boundaries
@@ -226,6 +290,8 @@ public class Lo
      so only a bridge to office is needed
   */
   {
+    XComponentContext xcc = getContext();
+    XMultiComponentFactory mcFactory = getComponentFactory();
     if ((xcc == null) || (mcFactory == null)) {
       System.out.println("No office connection found");
       return null;
@@ -253,6 +319,8 @@ public class Lo
      so only a bridge to office is needed
   */
   {
+    XComponentContext xcc = getContext();
+    XMultiComponentFactory mcFactory = getComponentFactory();
     if ((xcc == null) || (mcFactory == null)) {
       System.out.println("No office connection found");
       return null;
@@ -276,6 +344,22 @@ public class Lo
 
 
 
+  public static <T> T createCachedMCF(Class<T> aType, String serviceName)
+  /* like createInstanceMCF(), but a stateless service is only created 
+     once per office connection, and then reused */
+  {  return getServiceCache().get(aType, serviceName, 
+                                  getComponentFactory(), getContext());  }
+
+
+  public static ServiceCache getServiceCache()
+  // the cache of the thread's bound connection, or of the static connection
+  { OfficeConnection conn = boundConn.get();
+    return (conn != null) ? conn.getServiceCache() : serviceCache;
+  }
+
+
+
+
   public static <T> T getParent(Object aComponent, Class<T> aType)
   // retrieves the parent of the given object
   {
@@ -307,6 +391,7 @@ public class Lo
   */
   {
     System.out.println("Loading Office...");
+    serviceCache.clear();    // the services belong to the previous office
     if (usingPipes)
       xcc = bootstrapContext(); // connects to office via pipes
     else
@@ -320,6 +405,7 @@ public class Lo
     mcFactory = xcc.getServiceManager();
     if (mcFactory == null) {
       System.out.println("Office Service Manager is unavailable");
+      killOffice(officeProcess);    // if socketContext() started one
       System.exit(1);
     }
 
@@ -327,15 +413,57 @@ public class Lo
     xDesktop = createInstanceMCF(XDesktop.class, "com.sun.star.frame.Desktop");
     if (xDesktop == null) {
       System.out.println("Could not create a desktop service");
+      killOffice(officeProcess);
       System.exit(1);
     }
 
     // XComponentLoader provides ability to load components
-    return Lo.qi(XComponentLoader.class, xDesktop);
+    XComponentLoader loader = Lo.qi(XComponentLoader.class, xDesktop);
+    if (isPrewarming)
+      prewarm(loader);
+    return loader;
   }  // end of loadOffice()
 
 
 
+  public static void setStartupDeadline(long ms)
+  // max time to wait for a started office to accept connections
+  {  startupDeadline = ms;  }
+
+  public static long getStartupDeadline()
+  {  return startupDeadline;  }
+
+
+  public static void setPrewarming(boolean b)
+  {  isPrewarming = b;  }
+
+  public static boolean isPrewarming()
+  {  return isPrewarming;  }
+
+
+
+  public static void prewarm(XComponentLoader loader)
+  /* Create and close a hidden Calc and Writer document, so office
+     loads their libraries and filters now, rather than during the
+     first real request. */
+  {
+    long startTime = System.currentTimeMillis();
+    String[] docTypes = { CALC_STR, WRITER_STR };
+    for (String docType : docTypes) {
+      try {
+        XComponent doc = loader.loadComponentFromURL("private:factory/" + docType, 
+                                     "_blank", 0, Props.makeProps("Hidden", true));
+        closeDoc(doc);
+      }
+      catch (Exception e)
+      {  System.out.println("Could not prewarm " + docType + ": " + e);  }
+    }
+    System.out.println("Office prewarmed in " + 
+                          (System.currentTimeMillis() - startTime) + " ms");
+  }  // end of prewarm()
+
+
+
   private static XComponentContext bootstrapContext()
   // connect pipes to office using the Bootstrap class
   // i.e. see code at http://svn.apache.org/repos/asf/openoffice/symphony/trunk/main/
@@ -358,71 +486,177 @@ public class Lo
   // use socket connection to Office
   // https://forum.openoffice.org/en/forum/viewtopic.php?f=44&t=1014
   {
-    XComponentContext xcc = null;   // the remote office component context
+    String connStr = "socket,host=localhost,port=" + SOCKET_PORT;
+    Process p = launchOffice(connStr, null);
+    if (p == null)
+      return null;
+    officeProcess = p;
+
+    XComponentContext xcc = null;
+    try {
+      XBridge bridge = waitForBridge(p, connStr, "socketBridgeAD", startupDeadline);
+      if (bridge == null) {
+        System.out.println("Unable to socket connect to Office");
+        return null;
+      }
+      bridgeComponent = Lo.qi(XComponent.class, bridge);
+      bridgeComponent.addEventListener(new com.sun.star.lang.XEventListener() {
+        public void disposing(com.sun.star.lang.EventObject e)
+        {  serviceCache.clear();  }    // office has gone
+      });
+      xcc = getRemoteContext(bridge);
+      return xcc;
+    }
+    finally {
+      if (xcc == null) {     // don't leave the new office running
+        killOffice(p);
+        officeProcess = null;
+      }
+    }
+  }  // end of socketContext()
+
+
+
+  public static Process launchOffice(String connStr, String profileURL)
+  /* start a headless office which listens on connStr, e.g.
+       "socket,host=localhost,port=8100"  or  "pipe,name=office1"
+     If profileURL is not null, then office uses it as its user
+     installation, so several offices can run side-by-side.
+  */
+  {
+    ArrayList<String> cmds = new ArrayList<String>();
+    cmds.add("soffice");     
+            // requires soffice to be in Windows PATH env var.
+    cmds.add("-headless");
+    if (profileURL != null) {
+      cmds.add("--norestore");
+      cmds.add("-env:UserInstallation=" + profileURL);
+    }
+    cmds.add("-accept=" + connStr + ";urp;");
     try {
-      String[] cmdArray = new String[3];
-      cmdArray[0] = "soffice";     
-                // requires soffice to be in Windows PATH env var.
-      cmdArray[1] = "-headless";
-      cmdArray[2] = "-accept=socket,host=localhost,port=" +
-                                               SOCKET_PORT + ";urp;";
-      Process p = Runtime.getRuntime().exec(cmdArray);
-      if (p != null)
-        System.out.println("Office process created");
-      delay(5000);
-             // Wait 5 seconds, until office is in listening mode
-
-      // Create a local Component Context
-      XComponentContext localContext =
-                        Bootstrap.createInitialComponentContext(null);
-
-      // Get the local service manager
-      XMultiComponentFactory localFactory = localContext.getServiceManager();
-
-      // connect to Office via its socket
+      Process p = new ProcessBuilder(cmds).start();
+      System.out.println("Office process created");
+      return p;
+    }
+    catch (java.io.IOException e) {
+      System.out.println("Unable to start Office: " + e);
+      return null;
+    }
+  }  // end of launchOffice()
+
+
+
+  public static XBridge waitForBridge(Process p, String connStr, 
+                                      String bridgeName, long deadline)
+  /* Keep trying to connect to the starting office p, with a growing
+     delay between attempts, until it answers or deadline ms have passed.
+     Gives up early if the office process dies.
+  */
+  {
+    long startTime = System.currentTimeMillis();
+    int waitTime = MIN_CONNECT_DELAY;
+    int numTries = 0;
+    while (true) {
+      numTries++;
+      try {
+        XBridge bridge = createBridge(connStr, bridgeName);
+        System.out.println("Office ready after " + 
+                    (System.currentTimeMillis() - startTime) + " ms (" + 
+                    numTries + " connection attempts)");
+        return bridge;
+      }
+      catch (NoConnectException e) {}   // office is not listening yet
+      catch (java.lang.Exception e) {
+        System.out.println("Unable to connect to Office via " + connStr + ": " + e);
+        return null;
+      }
+
+      if ((p != null) && !p.isAlive()) {
+        System.out.println("Office process exited with code " + p.exitValue());
+        return null;
+      }
+      long elapsed = System.currentTimeMillis() - startTime;
+      if (elapsed >= deadline) {
+        System.out.println("Office not ready after " + elapsed + " ms; giving up");
+        return null;
+      }
+      delay((int) Math.min(waitTime, deadline - elapsed));
+      waitTime = Math.min(waitTime*2, MAX_CONNECT_DELAY);
+    }
+  }  // end of waitForBridge()
+
+
+
+  public static XBridge connectBridge(String connStr, String bridgeName)
+  // create a bridge to an office which is listening on connStr
+  {
+    try {
+      return createBridge(connStr, bridgeName);
+    }
+    catch (java.lang.Exception e) {
+      System.out.println("Unable to connect to Office via " + connStr);
+      return null;
+    }
+  }  // end of connectBridge()
+
+
+
+  private static XBridge createBridge(String connStr, String bridgeName)
+                                               throws java.lang.Exception
+  {
+    // Create a local Component Context
+    XComponentContext localContext =
+                      Bootstrap.createInitialComponentContext(null);
+
+    // Get the local service manager
+    XMultiComponentFactory localFactory = localContext.getServiceManager();
+
+    // connect to Office via its socket or pipe
 /*
-      Object urlResolver = localFactory.createInstanceWithContext(
-                                  "com.sun.star.bridge.UnoUrlResolver", localContext);
-      XUnoUrlResolver xUrlResolver = Lo.qi(XUnoUrlResolver.class, urlResolver);
-      Object initObject = xUrlResolver.resolve(
-            "uno:socket,host=localhost,port=" + SOCKET_PORT + 
-                                          ";urp;StarOffice.ServiceManager");
+    Object urlResolver = localFactory.createInstanceWithContext(
+                                "com.sun.star.bridge.UnoUrlResolver", localContext);
+    XUnoUrlResolver xUrlResolver = Lo.qi(XUnoUrlResolver.class, urlResolver);
+    Object initObject = xUrlResolver.resolve(
+          "uno:socket,host=localhost,port=" + SOCKET_PORT + 
+                                        ";urp;StarOffice.ServiceManager");
 */
-      XConnector connector = Lo.qi(XConnector.class,
-              localFactory.createInstanceWithContext(
-                          "com.sun.star.connection.Connector", localContext));
+    XConnector connector = Lo.qi(XConnector.class,
+            localFactory.createInstanceWithContext(
+                        "com.sun.star.connection.Connector", localContext));
 
-      XConnection connection = connector.connect(
-                         "socket,host=localhost,port=" + SOCKET_PORT);
+    XConnection connection = connector.connect(connStr);
 
-      // create a bridge to Office via the socket
-      XBridgeFactory bridgeFactory = Lo.qi(XBridgeFactory.class,
-                localFactory.createInstanceWithContext(
-                         "com.sun.star.bridge.BridgeFactory", localContext));
+    // create a bridge to Office via the connection
+    XBridgeFactory bridgeFactory = Lo.qi(XBridgeFactory.class,
+              localFactory.createInstanceWithContext(
+                       "com.sun.star.bridge.BridgeFactory", localContext));
+
+    // create a bridge with no instance provider
+    return bridgeFactory.createBridge(bridgeName, "urp", connection, null);
+  }  // end of createBridge()
 
-      // create a nameless bridge with no instance provider
-      XBridge bridge = bridgeFactory.createBridge("socketBridgeAD", "urp", connection, null);
 
-      bridgeComponent = Lo.qi(XComponent.class, bridge);
 
+  public static XComponentContext getRemoteContext(XBridge bridge)
+  // get office's component context from the other side of the bridge
+  {
+    try {
       // get the remote service manager
       XMultiComponentFactory serviceManager = Lo.qi(XMultiComponentFactory.class,
                                      bridge.getInstance("StarOffice.ServiceManager"));
 
       // retrieve Office's remote component context as a property
       XPropertySet props = Lo.qi(XPropertySet.class, serviceManager);
-                                                     // initObject);
       Object defaultContext = props.getPropertyValue("DefaultContext");
 
       // get the remote interface XComponentContext
-      xcc = Lo.qi(XComponentContext.class, defaultContext);
+      return Lo.qi(XComponentContext.class, defaultContext);
     }
     catch (java.lang.Exception e) {
-      System.out.println("Unable to socket connect to Office");
+      System.out.println("Unable to access the remote Office context");
+      return null;
     }
-
-    return xcc;
-  }  // end of socketContext()
+  }  // end of getRemoteContext()
 
 
 
@@ -433,7 +667,7 @@ public class Lo
   // tell office to terminate
   {
     System.out.println("Closing Office");
-    if (xDesktop == null) {
+    if (getDesktop() == null) {
       System.out.println("No office connection found");
       return;
     }
@@ -449,6 +683,7 @@ public class Lo
       isOfficeTerminated = tryToTerminate(numTries);
       numTries++;
     }
+    getServiceCache().clear();
   }  // end of closeOffice()
 
 
@@ -456,7 +691,7 @@ public class Lo
   public static boolean tryToTerminate(int numTries)
   {
     try {
-      boolean isDead = xDesktop.terminate();
+      boolean isDead = getDesktop().terminate();
       if (isDead) {
         if (numTries > 1)
           System.out.println(numTries + ". Office terminated");
@@ -480,9 +715,25 @@ public class Lo
 
 
   public static void killOffice()
-  // kill office processes using a batch file
-  // or use JNAUtils.killOffice()
+  /* kill the office of the bound connection, or the office started by
+     socketContext(); other offices (e.g. the rest of an OfficePool) are
+     left alone. Otherwise use a batch file on Windows,
+     or use JNAUtils.killOffice() */
   {
+    OfficeConnection conn = boundConn.get();
+    if ((conn != null) && (conn.getProcess() != null)) {
+      killOffice(conn.getProcess());
+      return;
+    }
+    if (officeProcess != null) {
+      killOffice(officeProcess);
+      officeProcess = null;
+      return;
+    }
+    if (!System.getProperty("os.name").startsWith("Windows")) {
+      System.out.println("No office process is known, so none was killed");
+      return;
+    }
     try {
       Runtime.getRuntime().exec("cmd /c lokill.bat");
       System.out.println("Killed Office");
@@ -494,6 +745,148 @@ public class Lo
 
 
 
+  public static boolean killOffice(Process p)
+  // kill an office started by launchOffice(); ask nicely first
+  {
+    if (p == null)
+      return false;
+    try {
+      long pid = getPid(p);
+      long officePid = getOfficePid(p);
+      p.destroy();       // SIGTERM
+      if (!p.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) {
+        p.destroyForcibly();   // SIGKILL
+        p.waitFor(5, java.util.concurrent.TimeUnit.SECONDS);
+      }
+      boolean isKilled = !p.isAlive();
+      if ((officePid > 0) && (officePid != pid) &&
+          new java.io.File("/proc/" + officePid).exists())
+        isKilled = killOffice(officePid) && isKilled;  // the soffice.bin child outlived its launcher
+      if (isKilled)
+        System.out.println("Killed Office process " + officePid);
+      return isKilled;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }  // end of killOffice()
+
+
+
+  public static boolean killOffice(long pid)
+  // kill the office process with this pid (not on Windows)
+  {
+    try {
+      Process kill = Runtime.getRuntime().exec(new String[] {"kill", "-9", "" + pid});
+      if (kill.waitFor() == 0)
+        return true;
+      System.out.println("Unable to kill Office process " + pid);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      System.out.println("Interrupted while killing Office process " + pid);
+    }
+    catch (java.lang.Exception e) {
+      System.out.println("Unable to kill Office process " + pid + ": " + e);
+    }
+    return false;
+  }  // end of killOffice()
+
+
+
+  public static long getPid(Process p)
+  /* Process.pid() only exists in Java 9+, so call it via reflection,
+     or read the pid field of the Java 8 Unix process class. 
+     Returns -1 if the pid is unavailable. */
+  {
+    try {
+      java.lang.reflect.Method m = Process.class.getMethod("pid");
+      return (Long) m.invoke(p);
+    }
+    catch (java.lang.Exception e) {}
+
+    try {
+      java.lang.reflect.Field f = p.getClass().getDeclaredField("pid");
+      f.setAccessible(true);
+      return f.getLong(p);
+    }
+    catch (java.lang.Exception e) {
+      return -1;
+    }
+  }  // end of getPid()
+
+
+
+  public static long getOfficePid(Process p)
+  /* On Linux, soffice is a script which starts oosplash, which starts
+     soffice.bin, the real office. Search /proc for a soffice.bin
+     descendant of p, and return its pid; otherwise return p's pid. */
+  {
+    long pid = getPid(p);
+    java.io.File[] procDirs = new java.io.File("/proc").listFiles();
+    if ((pid <= 0) || (procDirs == null))
+      return pid;
+
+    HashMap<Long,Long> parents = new HashMap<Long,Long>();   // pid --> ppid
+    ArrayList<Long> officePids = new ArrayList<Long>();
+    for (java.io.File dir : procDirs) {
+      String nm = dir.getName();
+      if (!Character.isDigit(nm.charAt(0)))
+        continue;
+      try (BufferedReader br = new BufferedReader(
+                             new FileReader(new java.io.File(dir, "stat")))) {
+        String stat = br.readLine();   // "pid (comm) state ppid ..."
+        int rParen = stat.lastIndexOf(')');
+        String comm = stat.substring(stat.indexOf('(')+1, rParen);
+        String[] toks = stat.substring(rParen+2).split(" ");
+        long childPid = Long.parseLong(nm);
+        parents.put(childPid, Long.parseLong(toks[1]));
+        if (comm.equals("soffice.bin"))
+          officePids.add(childPid);
+      }
+      catch (java.lang.Exception e) {}   // process has gone, or no access
+    }
+
+    for (long officePid : officePids) {
+      Long ancestor = officePid;
+      while ((ancestor != null) && (ancestor > 1)) {
+        if (ancestor == pid)
+          return officePid;
+        ancestor = parents.get(ancestor);
+      }
+    }
+    return pid;
+  }  // end of getOfficePid()
+
+
+
+  public static long getResidentMemory(long pid)
+  /* return the resident set size (in KB) of the process by reading 
+     VmRSS in /proc/<pid>/status (i.e. only on Linux); -1 if unknown */
+  {
+    if (pid <= 0)
+      return -1;
+    java.io.File statusFile = new java.io.File("/proc/" + pid + "/status");
+    if (!statusFile.exists())
+      return -1;
+    try (BufferedReader br = new BufferedReader(new FileReader(statusFile))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith("VmRSS:")) {   // e.g. "VmRSS:    123456 kB"
+          String[] toks = line.substring(6).trim().split("\\s+");
+          return Long.parseLong(toks[0]);
+        }
+      }
+    }
+    catch (java.lang.Exception e) {
+      System.out.println("Could not read " + statusFile + ": " + e);
+    }
+    return -1;
+  }  // end of getResidentMemory()
+
+
+
   // ======================== document opening ==============
 
 
@@ -544,7 +937,7 @@ public class Lo
     XComponent doc = null;
     try {
       doc = loader.loadComponentFromURL(openFileURL, "_blank", 0, props);
-      msFactory =  Lo.qi(XMultiServiceFactory.class, doc);
+      setServiceFactory( Lo.qi(XMultiServiceFactory.class, doc) );
     }
     catch (Exception e) {
       System.out.println("Unable to open the document");
@@ -555,6 +948,69 @@ public class Lo
 
 
 
+  // ---------- opening from memory / streams -------------
+  // the document's format is detected by office, unless a
+  // "FilterName" property is supplied
+
+
+  public static XComponent openDoc(InputStream is, XComponentLoader loader)
+  {
+    try {
+      ChunkedXInputStream xis = new ChunkedXInputStream(is, BufferPool.getDefault());
+      return openDoc(xis, loader, Props.makeProps("Hidden", true));
+    }
+    catch (java.io.IOException e) {
+      System.out.println("Could not read the document stream: " + e);
+      return null;
+    }
+  }  // end of openDoc()
+
+
+  public static XComponent openDoc(byte[] bytes, XComponentLoader loader)
+  {  return openDoc(new ChunkedXInputStream(bytes), loader, 
+                                        Props.makeProps("Hidden", true));  }
+
+
+  public static XComponent openDoc(java.nio.ByteBuffer buf, XComponentLoader loader)
+  {  return openDoc(new ChunkedXInputStream(buf), loader, 
+                                        Props.makeProps("Hidden", true));  }
+
+
+
+  public static XComponent openDoc(final com.sun.star.io.XInputStream xis, 
+                               XComponentLoader loader, PropertyValue[] props)
+  /* open a document from a (seekable) UNO input stream; office goes on
+     reading the stream after loading, so a ChunkedXInputStream is only
+     released when the document is disposed */
+  {
+    PropertyValue[] streamProps = Arrays.copyOf(props, props.length+1);
+    streamProps[props.length] = Props.makeProps("InputStream", xis)[0];
+
+    XComponent doc = null;
+    try {
+      doc = loader.loadComponentFromURL("private:stream", "_blank", 0, streamProps);
+      setServiceFactory( Lo.qi(XMultiServiceFactory.class, doc) );
+    }
+    catch (Exception e) {
+      System.out.println("Unable to open the document stream");
+    }
+
+    if (xis instanceof ChunkedXInputStream) {
+      final ChunkedXInputStream cxis = (ChunkedXInputStream) xis;
+      if (doc == null)
+        cxis.release();
+      else
+        doc.addEventListener(new com.sun.star.lang.XEventListener() {
+          public void disposing(com.sun.star.lang.EventObject e)
+          {  cxis.release();  }
+        });
+    }
+    return doc;
+  }  // end of openDoc()
+
+
+
+
   public static boolean isURL(String fnm)
   {
     try {
@@ -652,7 +1108,7 @@ public class Lo
     XComponent doc = null;
     try {
       doc = loader.loadComponentFromURL("private:factory/"+docType, "_blank", 0, props);
-      msFactory =  Lo.qi(XMultiServiceFactory.class, doc);
+      setServiceFactory( Lo.qi(XMultiServiceFactory.class, doc) );
     }
     catch (Exception e) {
        System.out.println("Could not create a document");
@@ -677,7 +1133,7 @@ public class Lo
     XComponent doc = null;
     try {
       doc = loader.loadComponentFromURL(templateURL, "_blank", 0, props);
-      msFactory =  Lo.qi(XMultiServiceFactory.class, doc);
+      setServiceFactory( Lo.qi(XMultiServiceFactory.class, doc) );
     }
     catch (Exception e) {
        System.out.println("Could not create document from template: " + e);
@@ -871,31 +1327,91 @@ public class Lo
 
   public static void storeDocFormat(XStorable store, String fnm, String format, String password)
   // save the document in the specified file using the supplied office format
+  {  storeDocFormat(store, fnm, format, password, null);  }
+
+
+
+  public static boolean storeDocFormat(XStorable store, String fnm, String format, 
+                                           String password, String filterOptions)
+  /* save the document in the specified file using the supplied office format
+     and filter options (e.g. the separators for a CSV file); 
+     password and filterOptions may be null */
   {
     System.out.println("Saving the document in " + fnm);
     System.out.println("Using format: " + format);
     try {
       String saveFileURL = FileIO.fnmToURL(fnm);
       if (saveFileURL == null)
-        return;
-
-      PropertyValue[] storeProps;
-      if (password == null)  // no password supplied
-        storeProps = Props.makeProps("Overwrite", true, "FilterName", format);
-      else {
-        String[] nms = new String[] {"Overwrite", "FilterName", "Password"};
-        Object[] vals = new Object[] { true, format, password};
-        storeProps = Props.makeProps(nms, vals);
+        return false;
+
+      ArrayList<String> nms = new ArrayList<String>();
+      ArrayList<Object> vals = new ArrayList<Object>();
+      nms.add("Overwrite");  vals.add(true);
+      nms.add("FilterName");  vals.add(format);
+      if (password != null) {
+        nms.add("Password");  vals.add(password);
+      }
+      if (filterOptions != null) {
+        nms.add("FilterOptions");  vals.add(filterOptions);
       }
+      PropertyValue[] storeProps = Props.makeProps(nms.toArray(new String[nms.size()]), 
+                                                   vals.toArray());
       store.storeToURL(saveFileURL, storeProps);
+      return true;
     }
     catch (IOException e) {
        System.out.println("Could not save " + fnm + ": " + e);
+       return false;
     }
   } // end of storeDocFormat()
 
 
 
+  public static boolean storeDocFormat(XStorable store, OutputStream os, String format, 
+                                           String password, String filterOptions)
+  /* write the document to os using the supplied office format and filter
+     options (both password and filterOptions may be null); os is not closed */
+  {
+    System.out.println("Using format: " + format);
+    ChunkedXOutputStream xos = new ChunkedXOutputStream(os, BufferPool.getDefault());
+    try {
+      ArrayList<String> nms = new ArrayList<String>();
+      ArrayList<Object> vals = new ArrayList<Object>();
+      nms.add("OutputStream");  vals.add(xos);
+      nms.add("FilterName");  vals.add(format);
+      if (password != null) {
+        nms.add("Password");  vals.add(password);
+      }
+      if (filterOptions != null) {
+        nms.add("FilterOptions");  vals.add(filterOptions);
+      }
+      PropertyValue[] storeProps = Props.makeProps(nms.toArray(new String[nms.size()]), 
+                                                   vals.toArray());
+      store.storeToURL("private:stream", storeProps);
+      xos.closeOutput();    // in case office didn't close it
+      return true;
+    }
+    catch (IOException e) {
+       System.out.println("Could not save the document to the stream: " + e);
+       return false;
+    }
+    finally {
+      xos.release();     // the pooled chunk, even if storing failed
+    }
+  } // end of storeDocFormat()
+
+
+  public static byte[] storeDocFormat(XStorable store, String format, String filterOptions)
+  // return the document's bytes in the supplied office format
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    if (!storeDocFormat(store, bos, format, null, filterOptions))
+      return null;
+    return bos.toByteArray();
+  }  // end of storeDocFormat()
+
+
+
   // ======================== document closing ==============
 
 
@@ -934,6 +1450,7 @@ public class Lo
   public static XComponent addonInitialize(XComponentContext addonXcc)
   {
     xcc = addonXcc;
+    serviceCache.clear();
     if (xcc == null)  {
       System.out.println("Could not access component context");
       return null;
@@ -978,6 +1495,7 @@ public class Lo
     }
 
     xcc = sc.getComponentContext();
+    serviceCache.clear();
     if (xcc == null)  {
       System.out.println("Could not access component context");
       return null;
@@ -1012,18 +1530,18 @@ public class Lo
 
 
   public static boolean dispatchCmd(String cmd)
-  {  return dispatchCmd(xDesktop.getCurrentFrame(), cmd, null);   } 
+  {  return dispatchCmd(getDesktop().getCurrentFrame(), cmd, null);   } 
 
 
   public static boolean dispatchCmd(String cmd, PropertyValue[] props)
-  {  return dispatchCmd(xDesktop.getCurrentFrame(), cmd, props);   } 
+  {  return dispatchCmd(getDesktop().getCurrentFrame(), cmd, props);   } 
 
 
   public static boolean dispatchCmd(XFrame frame, String cmd, PropertyValue[] props)
   // cmd does not include the ".uno:" substring; e.g. pass "Zoom" not ".uno:Zoom"
   {
     XDispatchHelper helper = 
-         createInstanceMCF(XDispatchHelper.class, "com.sun.star.frame.DispatchHelper");
+         createCachedMCF(XDispatchHelper.class, "com.sun.star.frame.DispatchHelper");
     if (helper == null) {
       System.out.println("Could not create dispatch helper for command " + cmd);
       return false;
@@ -1094,6 +1612,8 @@ public class Lo
      Available from https://wiki.openoffice.org/wiki/Object_Inspector
   */
   {
+    XComponentContext xcc = getContext();
+    XMultiComponentFactory mcFactory = getComponentFactory();
     if ((xcc == null) || (mcFactory == null)) {
       System.out.println("No office connection found");
       return;
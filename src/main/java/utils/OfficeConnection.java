@@ -0,0 +1,544 @@
+// OfficeConnection.java
+
+/* A connection to one headless office process. Unlike the static
+   globals in Lo, each OfficeConnection has its own process, user
+   installation (profile) folder, pipe name, remote component context,
+   desktop and service factories, so several connections can be used
+   at the same time.
+
+   A connection is usually obtained from an OfficePool, which binds it
+   to the leasing thread via Lo.bindConnection(). Then the usual Lo,
+   Calc, Write, etc. functions operate on this connection's office.
+
+   The connection listens to its bridge, so it notices when office
+   crashes (or is killed). execute() restarts a dead office, and
+   reruns idempotent jobs that were interrupted by the crash. 
+   Restarted offices, retried jobs, and failed jobs are counted.
+
+   Office's memory use grows as it processes documents, so the
+   connection counts the documents loaded since office started, and
+   reads office's resident memory from /proc (on Linux). Once either
+   passes the limits set by setRecycleLimits(), the office is recycled:
+   running jobs are allowed to finish, office is asked to terminate,
+   killed if it won't, and a new office is started.
+*/
+
+package utils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+
+import com.sun.star.bridge.*;
+import com.sun.star.frame.*;
+import com.sun.star.lang.*;
+import com.sun.star.uno.*;
+
+import com.sun.star.uno.Exception;
+
+
+
+public class OfficeConnection implements XEventListener
+{
+  // how often an idempotent job is retried after office crashes
+  private static final int MAX_RETRIES = 2;
+
+  // max time to wait for running jobs to finish before recycling office
+  private static final int DRAIN_TIME = 60000;   // ms
+
+  private final String name;         // used for the pipe and bridge names
+  private final String profileDir;   // office's user installation folder
+
+  private volatile Process process = null;
+
+  private XComponentContext xcc = null;
+  private XDesktop xDesktop = null;
+  private XMultiComponentFactory mcFactory = null;
+  private XMultiServiceFactory msFactory = null;    // set when a doc is loaded/created
+  private volatile XComponent bridgeComponent = null;
+
+  private volatile boolean isAlive = false;   // false once the bridge is disposed
+
+  private final ServiceCache serviceCache = new ServiceCache();
+
+  private final AtomicLong numRestarts = new AtomicLong(0);
+  private final AtomicLong numRetries = new AtomicLong(0);
+  private final AtomicLong numFailures = new AtomicLong(0);
+
+  // recycling
+  private int maxDocs = 0;             // 0 means no limit
+  private long maxResidentMemory = 0;  // in KB; 0 means no limit
+  private long officePid = -1;
+  private final AtomicInteger numDocs = new AtomicInteger(0);   // since office started
+  private final AtomicInteger numActiveJobs = new AtomicInteger(0);
+  private final AtomicLong numRecycles = new AtomicLong(0);
+
+
+
+  public OfficeConnection(String name, String profileDir)
+  {
+    this.name = name;
+    this.profileDir = profileDir;
+  }  // end of OfficeConnection()
+
+
+
+  public boolean start()
+  // launch a headless office listening on its own pipe, and connect to it
+  {
+    File dir = new File(profileDir);
+    if (!dir.exists() && !dir.mkdirs()) {
+      System.out.println("Could not create profile folder " + profileDir);
+      return false;
+    }
+    String profileURL = dir.getAbsoluteFile().toURI().toString();
+           // e.g. file:/tmp/office1/
+
+    String connStr = getConnectionString();
+    process = Lo.launchOffice(connStr, profileURL);
+    if (process == null)
+      return false;
+
+    boolean isStarted = false;
+    try {
+      XBridge bridge = Lo.waitForBridge(process, connStr, name + "Bridge", 
+                                                       Lo.getStartupDeadline());
+      if (bridge == null) {
+        System.out.println(name + ": could not connect to office");
+        return false;
+      }
+      bridgeComponent = Lo.qi(XComponent.class, bridge);
+      bridgeComponent.addEventListener(this);    // to detect a crashed office
+      isAlive = true;
+
+      xcc = Lo.getRemoteContext(bridge);
+      if (xcc == null)
+        return false;
+      mcFactory = xcc.getServiceManager();
+
+      try {
+        xDesktop = Lo.qi(XDesktop.class,
+                mcFactory.createInstanceWithContext("com.sun.star.frame.Desktop", xcc));
+      }
+      catch (Exception e) {
+        System.out.println(name + ": could not create a desktop service");
+        return false;
+      }
+      officePid = Lo.getOfficePid(process);
+      numDocs.set(0);
+      System.out.println(name + ": office connected (pid " + officePid + ")");
+      isStarted = true;
+    }
+    finally {
+      if (!isStarted) {    // don't leave the new office running
+        isAlive = false;
+        Lo.killOffice(process);
+        detach();
+      }
+    }
+    if (Lo.isPrewarming())
+      Lo.prewarm(getLoader());
+    return true;
+  }  // end of start()
+
+
+
+  public void disposing(EventObject e)
+  // called when the bridge goes down, because office crashed or was terminated
+  {
+    if (!UnoRuntime.areSame(e.Source, bridgeComponent))
+      return;    // the bridge of an office that has already been replaced
+    if (isAlive)
+      System.out.println(name + ": office link disposed");
+    isAlive = false;
+    serviceCache.clear();    // the services belong to the dead office
+  }  // end of disposing()
+
+
+  public boolean isAlive()
+  {  return isAlive;  }
+
+
+
+  public synchronized boolean restart()
+  /* throw away the dead office (if it is still running), and start a new
+     one; does nothing if another thread has already restarted or 
+     recycled office while this one waited for the lock */
+  {
+    if (isAlive)
+      return true;
+    System.out.println(name + ": restarting office");
+    isAlive = false;
+    if (!killProcess()) {
+      System.out.println(name + ": old office is still running; not restarting");
+      return false;
+    }
+    new File(profileDir, ".lock").delete();     // left behind by a crashed office
+    detach();
+
+    numRestarts.incrementAndGet();
+    return start();
+  }  // end of restart()
+
+
+
+  private boolean killProcess()
+  /* kill the office if it is still running, using its recorded pid, 
+     since the launcher may have exited and left soffice.bin running;
+     returns false if it could not be killed */
+  {
+    boolean isRunning = (officePid > 0) ? new File("/proc/" + officePid).exists() :
+                                          ((process != null) && process.isAlive());
+    if (!isRunning)
+      return true;
+    boolean isKilled = (officePid > 0) ? Lo.killOffice(officePid) : 
+                                         Lo.killOffice(process);
+    if ((process != null) && process.isAlive())
+      process.destroyForcibly();    // the launcher
+    if (isKilled)
+      System.out.println(name + ": killed office (pid " + officePid + ")");
+    else
+      System.out.println(name + ": could not kill office (pid " + officePid + ")");
+    return isKilled;
+  }  // end of killProcess()
+
+
+
+  private void detach()
+  {
+    serviceCache.clear();
+    xcc = null;
+    xDesktop = null;
+    mcFactory = null;
+    msFactory = null;
+    bridgeComponent = null;
+    process = null;
+    officePid = -1;
+  }  // end of detach()
+
+
+
+  // ---------------------- recycling --------------------------
+
+
+  public void setRecycleLimits(int maxDocs, long maxResidentMemory)
+  /* recycle office after it has loaded maxDocs documents, or when 
+     its resident memory reaches maxResidentMemory KB; 0 means no limit */
+  {
+    this.maxDocs = maxDocs;
+    this.maxResidentMemory = maxResidentMemory;
+  }  // end of setRecycleLimits()
+
+
+  void countDoc()
+  // called by Lo when a document is loaded/created using this connection
+  {  numDocs.incrementAndGet();  }
+
+
+  public int getDocCount()
+  {  return numDocs.get();  }
+
+
+  public long getResidentMemory()
+  // office's resident memory in KB, or -1 if unknown
+  {  return Lo.getResidentMemory(officePid);  }
+
+
+  public long getRecycleCount()
+  {  return numRecycles.get();  }
+
+
+
+  public boolean needsRecycling()
+  {
+    if (!isAlive)
+      return false;    // will be restarted anyway
+    if ((maxDocs > 0) && (numDocs.get() >= maxDocs)) {
+      System.out.println(name + ": " + numDocs.get() + " docs loaded");
+      return true;
+    }
+    if (maxResidentMemory > 0) {
+      long rss = getResidentMemory();
+      if (rss >= maxResidentMemory) {
+        System.out.println(name + ": resident memory is " + rss + " KB");
+        return true;
+      }
+    }
+    return false;
+  }  // end of needsRecycling()
+
+
+
+  public synchronized boolean recycle()
+  // drain, terminate (or kill) office, and start a new one
+  {
+    System.out.println(name + ": recycling office");
+
+    // wait for running jobs to finish
+    long startTime = System.currentTimeMillis();
+    while ((numActiveJobs.get() > 0) &&
+           (System.currentTimeMillis() - startTime < DRAIN_TIME))
+      Lo.delay(100);
+    if (numActiveJobs.get() > 0)
+      System.out.println(name + ": " + numActiveJobs.get() + 
+                                      " jobs still running; recycling anyway");
+
+    // ask office to terminate, as in Lo.closeOffice()
+    isAlive = false;     // so disposing() stays quiet
+    boolean isTerminated = false;
+    int numTries = 1;
+    while (!isTerminated && (numTries < 4)) {
+      try {
+        isTerminated = xDesktop.terminate();
+      }
+      catch (com.sun.star.lang.DisposedException e)
+      {  isTerminated = true;  }
+      catch (java.lang.Exception e)
+      {  System.out.println(name + ": termination exception: " + e);  }
+      if (!isTerminated)
+        Lo.delay(200);
+      numTries++;
+    }
+
+    // give it time to exit, then kill it
+    try {
+      process.waitFor(10, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!killProcess()) {
+      System.out.println(name + ": old office is still running; not restarting");
+      return false;
+    }
+    detach();
+
+    numRecycles.incrementAndGet();
+    return start();
+  }  // end of recycle()
+
+
+
+  public <T> T execute(OfficeJob<T> job)
+  {  return execute(job, false);  }
+
+
+  public <T> T execute(OfficeJob<T> job, boolean isIdempotent)
+  /* Run the job with this connection bound to the current thread.
+     If office has died, it is restarted first. If office dies during
+     the job, then an idempotent job is run again on a restarted
+     office (up to MAX_RETRIES times). Returns null if the job fails.
+  */
+  {
+    OfficeConnection prevConn = Lo.getConnection();
+    Lo.bindConnection(this);
+    numActiveJobs.incrementAndGet();
+    try {
+      int numTries = 0;
+      while (true) {
+        if (!isAlive && !restart()) {
+          System.out.println(name + ": office could not be restarted");
+          numFailures.incrementAndGet();
+          return null;
+        }
+
+        numTries++;
+        try {
+          T result = job.run(this);
+          if ((result != null) || isAlive)
+            return result;
+          // a null result from a dead office means the job was cut short
+        }
+        catch (java.lang.Exception e) {
+          if (isAlive) {   // a failure of the job, not of office
+            System.out.println(name + ": job failed: " + e);
+            numFailures.incrementAndGet();
+            return null;
+          }
+        }
+
+        if (!isIdempotent || (numTries > MAX_RETRIES)) {
+          System.out.println(name + ": office died during the job; giving up");
+          numFailures.incrementAndGet();
+          return null;
+        }
+        System.out.println(name + ": office died during the job; retrying");
+        numRetries.incrementAndGet();
+      }
+    }
+    finally {
+      if (prevConn != null)
+        Lo.bindConnection(prevConn);
+      else
+        Lo.unbindConnection();
+      if ((numActiveJobs.decrementAndGet() == 0) && needsRecycling())
+        recycle();
+    }
+  }  // end of execute()
+
+
+
+  // ----------- idempotent document operations --------------
+
+
+  public XComponent openDoc(final String fnm)
+  {
+    return execute(new OfficeJob<XComponent>() {
+      public XComponent run(OfficeConnection conn)
+      {  return Lo.openDoc(fnm, conn.getLoader());  }
+    }, true);
+  }  // end of openDoc()
+
+
+
+  public boolean convertDoc(final String inFnm, final String outFnm)
+  // load inFnm, store it as outFnm using outFnm's extension for the format
+  {
+    Boolean res = execute(new OfficeJob<Boolean>() {
+      public Boolean run(OfficeConnection conn)
+      {
+        XComponent doc = Lo.openDoc(inFnm, conn.getLoader());
+        if (doc == null)
+          return null;
+        try {
+          String ext = Info.getExt(outFnm);
+          if (ext == null) {
+            System.out.println("No extension in " + outFnm + "; cannot choose a format");
+            return null;
+          }
+          String format = Lo.ext2Format(Info.reportDocType(doc), ext);
+          return Lo.storeDocFormat(Lo.qi(XStorable.class, doc), outFnm, 
+                                   format, null, null) ? Boolean.TRUE : null;
+        }
+        finally {
+          Lo.closeDoc(doc);
+        }
+      }
+    }, true);
+    return (res != null);
+  }  // end of convertDoc()
+
+
+
+  public boolean storeDoc(final String inFnm, final String outFnm, 
+                                   final String format, final String password)
+  // load inFnm, store it as outFnm using the specified office format
+  {
+    Boolean res = execute(new OfficeJob<Boolean>() {
+      public Boolean run(OfficeConnection conn)
+      {
+        XComponent doc = Lo.openDoc(inFnm, conn.getLoader());
+        if (doc == null)
+          return null;
+        try {
+          return Lo.storeDocFormat(Lo.qi(XStorable.class, doc), outFnm, 
+                                   format, password, null) ? Boolean.TRUE : null;
+        }
+        finally {
+          Lo.closeDoc(doc);
+        }
+      }
+    }, true);
+    return (res != null);
+  }  // end of storeDoc()
+
+
+
+  // ------------------------- counters ----------------------
+
+
+  public long getRestartCount()
+  {  return numRestarts.get();  }
+
+  public long getRetryCount()
+  {  return numRetries.get();  }
+
+  public long getFailureCount()
+  {  return numFailures.get();  }
+
+
+  public void printStats()
+  {  System.out.println(name + ": restarts: " + numRestarts.get() + 
+                        "; retried jobs: " + numRetries.get() +
+                        "; failed jobs: " + numFailures.get() +
+                        "; recycles: " + numRecycles.get());
+  }
+
+
+
+  public void close()
+  // ask office to terminate, and detach from it
+  {
+    isAlive = false;     // so disposing() stays quiet
+    if (xDesktop != null) {
+      try {
+        xDesktop.terminate();
+        System.out.println(name + ": office terminated");
+      }
+      catch (com.sun.star.lang.DisposedException e)
+      {  System.out.println(name + ": office link disposed");  }
+    }
+    detach();
+  }  // end of close()
+
+
+
+  public String getName()
+  {  return name;  }
+
+  public String getConnectionString()
+  {  return "pipe,name=" + name;  }
+
+  public Process getProcess()
+  {  return process;  }
+
+  public XComponentContext getContext()
+  {  return xcc;  }
+
+  public XDesktop getDesktop()
+  {  return xDesktop;  }
+
+  public XMultiComponentFactory getComponentFactory()
+  {  return mcFactory;  }
+
+  public XMultiServiceFactory getServiceFactory()
+  {  return msFactory;  }
+
+  void setServiceFactory(XMultiServiceFactory msf)
+  {  msFactory = msf;  }
+
+  public XComponent getBridge()
+  {  return bridgeComponent;  }
+
+
+  public ServiceCache getServiceCache()
+  {  return serviceCache;  }
+
+
+  public XComponentLoader getLoader()
+  {  return Lo.qi(XComponentLoader.class, xDesktop);  }
+
+
+
+  public <T> T createInstanceMCF(Class<T> aType, String serviceName)
+  // create an interface object using this connection's component factory
+  {
+    if ((xcc == null) || (mcFactory == null)) {
+      System.out.println(name + ": no office connection found");
+      return null;
+    }
+    try {
+      return Lo.qi(aType, mcFactory.createInstanceWithContext(serviceName, xcc));
+    }
+    catch (Exception e) {
+      System.out.println("Couldn't create interface for \"" + serviceName + "\": " + e);
+      return null;
+    }
+  }  // end of createInstanceMCF()
+
+
+
+  public String toString()
+  {  return "OfficeConnection[" + name + "]";  }
+
+}  // end of OfficeConnection class
@@ -0,0 +1,19 @@
+// OfficeJob.java
+
+/* A unit of work run against one office connection by
+   OfficeConnection.execute() or OfficePool.run(). While the job runs,
+   the connection is bound to the current thread, so the job can use
+   the usual Lo, Calc, etc. functions.
+
+   A job is idempotent if it can be safely run again from the start
+   on a restarted office (e.g. load a file, convert it, store the
+   result); only those jobs are retried after an office crash.
+*/
+
+package utils;
+
+
+public interface OfficeJob<T>
+{
+  T run(OfficeConnection conn) throws java.lang.Exception;
+}
@@ -0,0 +1,251 @@
+// OfficePool.java
+
+/* A pool of headless office processes. Each process has its own
+   user installation folder (below baseDir) and pipe name, so the
+   processes do not share the office's global locks, and documents
+   can be converted/processed in parallel.
+
+   Typical use:
+
+     OfficePool pool = new OfficePool(4, "/tmp/officePool");
+     OfficeConnection conn = pool.lease();
+     try {
+       XComponent doc = Lo.openDoc(fnm, conn.getLoader());
+         // Lo, Calc, etc. now use conn for this thread
+       ...
+     }
+     finally {
+       pool.release(conn);
+     }
+     ...
+     pool.close();
+*/
+
+package utils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+
+public class OfficePool
+{
+  private final ArrayList<OfficeConnection> conns = new ArrayList<OfficeConnection>();
+  private final BlockingQueue<OfficeConnection> idleConns;
+  private volatile boolean isClosed = false;
+
+
+
+  public OfficePool(String baseDir)
+  // one office per core
+  {  this(Runtime.getRuntime().availableProcessors(), baseDir);  }
+
+
+  public OfficePool(int numOffices, String baseDir)
+  {
+    if (numOffices < 1) {
+      System.out.println("Pool size must be at least 1; using 1");
+      numOffices = 1;
+    }
+    idleConns = new ArrayBlockingQueue<OfficeConnection>(numOffices);
+
+    String jvmName = ManagementFactory.getRuntimeMXBean().getName();   // pid@host
+    String pipePrefix = "officePool" + jvmName.split("@")[0] + "_";
+          // so pools in different JVMs do not share pipe names
+    for (int i=0; i < numOffices; i++) {
+      String nm = pipePrefix + i;
+      OfficeConnection conn = new OfficeConnection(nm,
+                                       baseDir + File.separator + "office" + i);
+      if (conn.start()) {
+        conns.add(conn);
+        idleConns.add(conn);
+      }
+      else
+        System.out.println("Could not start office " + i + "; skipping it");
+    }
+    System.out.println("Office pool started with " + conns.size() + " offices");
+  }  // end of OfficePool()
+
+
+
+  public int size()
+  {  return conns.size();  }
+
+  public int numIdle()
+  {  return idleConns.size();  }
+
+  public List<OfficeConnection> getConnections()
+  {  return Collections.unmodifiableList(conns);  }
+
+
+
+  public OfficeConnection lease()
+  /* wait for an idle office, and bind it to the calling thread;
+     returns null if no office is running or can be restarted */
+  {
+    if (conns.isEmpty()) {
+      System.out.println("Office pool is empty");
+      return null;
+    }
+    try {
+      for (int i = 0; i < conns.size(); i++) {
+        OfficeConnection conn = idleConns.take();
+        if (checkAlive(conn)) {
+          Lo.bindConnection(conn);
+          return conn;
+        }
+      }
+      System.out.println("No office in the pool could be restarted");
+      return null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }  // end of lease()
+
+
+
+  public OfficeConnection lease(long timeout, TimeUnit unit)
+  /* returns null if no office becomes idle within the timeout, or
+     none can be restarted */
+  {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    try {
+      for (int i = 0; i < conns.size(); i++) {
+        OfficeConnection conn = idleConns.poll(deadline - System.nanoTime(), 
+                                                    TimeUnit.NANOSECONDS);
+        if (conn == null)
+          return null;
+        if (checkAlive(conn)) {
+          Lo.bindConnection(conn);
+          return conn;
+        }
+      }
+      return null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }  // end of lease()
+
+
+
+  private boolean checkAlive(OfficeConnection conn)
+  /* restart a crashed office before reuse; if that fails, put it back
+     (a later lease will try again) so the next idle office is used */
+  {
+    if (conn.isAlive() || conn.restart())
+      return true;
+    System.out.println(conn.getName() + ": could not be restarted; skipping it");
+    if (!isClosed)
+      idleConns.offer(conn);
+    return false;
+  }  // end of checkAlive()
+
+
+
+  public void release(OfficeConnection conn)
+  // return the office to the pool, and unbind it from the calling thread
+  {
+    if (conn == null)
+      return;
+    if (Lo.getConnection() == conn)
+      Lo.unbindConnection();
+    if (isClosed || !conns.contains(conn))
+      return;
+    if (conn.needsRecycling())
+      conn.recycle();     // nothing else is using it, so it is already drained
+    idleConns.offer(conn);
+  }  // end of release()
+
+
+
+  public void setRecycleLimits(int maxDocs, long maxResidentMemory)
+  // see OfficeConnection.setRecycleLimits()
+  {
+    for (OfficeConnection conn : conns)
+      conn.setRecycleLimits(maxDocs, maxResidentMemory);
+  }  // end of setRecycleLimits()
+
+
+
+  public <T> T run(OfficeJob<T> job)
+  {  return run(job, false);  }
+
+
+  public <T> T run(OfficeJob<T> job, boolean isIdempotent)
+  // run the job on the next idle office; see OfficeConnection.execute()
+  {
+    OfficeConnection conn = lease();
+    if (conn == null)
+      return null;
+    try {
+      return conn.execute(job, isIdempotent);
+    }
+    finally {
+      release(conn);
+    }
+  }  // end of run()
+
+
+
+  // ------------------- counters (summed over the offices) ---------------
+
+
+  public long getRestartCount()
+  { long total = 0;
+    for (OfficeConnection conn : conns)
+      total += conn.getRestartCount();
+    return total;
+  }
+
+  public long getRetryCount()
+  { long total = 0;
+    for (OfficeConnection conn : conns)
+      total += conn.getRetryCount();
+    return total;
+  }
+
+  public long getFailureCount()
+  { long total = 0;
+    for (OfficeConnection conn : conns)
+      total += conn.getFailureCount();
+    return total;
+  }
+
+
+  public long getRecycleCount()
+  { long total = 0;
+    for (OfficeConnection conn : conns)
+      total += conn.getRecycleCount();
+    return total;
+  }
+
+
+  public void printStats()
+  {
+    System.out.println("Office pool: recycles: " + getRecycleCount() + 
+                       "; restarts: " + getRestartCount() + 
+                       "; retried jobs: " + getRetryCount() +
+                       "; failed jobs: " + getFailureCount());
+    for (OfficeConnection conn : conns)
+      conn.printStats();
+  }  // end of printStats()
+
+
+
+  public void close()
+  // terminate all the offices, including leased ones
+  {
+    isClosed = true;
+    idleConns.clear();
+    for (OfficeConnection conn : conns)
+      conn.close();
+    System.out.println("Office pool closed");
+  }  // end of close()
+
+}  // end of OfficePool class
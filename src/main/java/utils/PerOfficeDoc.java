@@ -0,0 +1,114 @@
+// PerOfficeDoc.java
+
+/* Keeps one copy of a document loaded in each office of an 
+   OfficePool, for classes which run jobs on a workbook in every office
+   (SheetSplitter, CalcModel). 
+
+   The copy is loaded the first time get() is called for an office,
+   and loaded again if the office has been restarted or recycled since
+   then (the old copy went with the old office process). close() only
+   closes copies in offices that are still the ones they were loaded in.
+
+   Typical use (in an OfficeJob):
+     PerOfficeDoc<XSpreadsheetDocument> docs = 
+         new PerOfficeDoc<XSpreadsheetDocument>(fnm, true,
+           new DocOpener<XSpreadsheetDocument>() {
+             public XSpreadsheetDocument open(XComponent doc, OfficeConnection conn)
+             {  return Calc.getSSDoc(doc);  }
+           });
+     ...
+     XSpreadsheetDocument doc = docs.get(conn);
+     ...
+     docs.close();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.star.lang.XComponent;
+
+
+
+public class PerOfficeDoc<T> implements AutoCloseable
+{
+  private final String fnm;
+  private final boolean isReadOnly;
+  private final DocOpener<T> opener;
+
+  private final ConcurrentHashMap<OfficeConnection, Loaded<T>> loaded =
+                          new ConcurrentHashMap<OfficeConnection, Loaded<T>>();
+
+
+  private static class Loaded<T>
+  {
+    final XComponent doc;
+    final T value;
+    final long generation;   // office restarts + recycles when it was loaded
+
+    Loaded(XComponent doc, T value, long generation)
+    {  this.doc = doc;  this.value = value;  this.generation = generation;  }
+  }  // end of Loaded class
+
+
+
+  public PerOfficeDoc(String fnm, boolean isReadOnly, DocOpener<T> opener)
+  {
+    this.fnm = fnm;
+    this.isReadOnly = isReadOnly;
+    this.opener = opener;
+  }  // end of PerOfficeDoc()
+
+
+
+  public String getFileName()
+  {  return fnm;  }
+
+
+
+  public T get(OfficeConnection conn)
+  /* return this office's copy, loading it if the office has none, or 
+     has been restarted or recycled since it was loaded; null if the
+     document cannot be loaded or used. Call this from a job running 
+     on conn, so only one thread uses an office's copy at a time */
+  {
+    long generation = getGeneration(conn);
+    Loaded<T> ld = loaded.get(conn);
+    if ((ld != null) && (ld.generation == generation))
+      return ld.value;
+
+    XComponent doc = isReadOnly ? Lo.openReadOnlyDoc(fnm, conn.getLoader()) :
+                                  Lo.openDoc(fnm, conn.getLoader());
+    if (doc == null) {
+      System.out.println("Could not load " + fnm + " in " + conn);
+      return null;
+    }
+    T value = opener.open(doc, conn);
+    if (value == null) {
+      Lo.closeDoc(doc);
+      return null;
+    }
+    loaded.put(conn, new Loaded<T>(doc, value, generation));
+    return value;
+  }  // end of get()
+
+
+
+  private static long getGeneration(OfficeConnection conn)
+  {  return conn.getRestartCount() + conn.getRecycleCount();  }
+
+
+
+  public void close()
+  // close the copies; the offices are left running
+  {
+    for (Map.Entry<OfficeConnection, Loaded<T>> e : loaded.entrySet()) {
+      OfficeConnection conn = e.getKey();
+      if (conn.isAlive() && (getGeneration(conn) == e.getValue().generation))
+        Lo.closeDoc(e.getValue().doc);
+    }
+    loaded.clear();
+  }  // end of close()
+
+}  // end of PerOfficeDoc class
@@ -0,0 +1,317 @@
+// ScenarioSweep.java
+
+/* Runs a CalcModel over many parameter sets (a grid of values, or
+   random samples), sharing them out between the offices of the
+   model's pool. Each evaluation writes its parameters as one block
+   (when the model's inputs are in a line), recalculates, and reads
+   the outputs as one block.
+
+   Results are passed to a SweepListener as they finish, or written to
+   a CSV file, one row per run (run index, inputs, outputs), so a large
+   sweep is not held in memory.
+
+   Progress (runs done, failures, runs/sec, latency percentiles) can be
+   read while the sweep is running, from another thread.
+
+   Typical use:
+     ScenarioSweep sweep = new ScenarioSweep(model);
+     sweep.runToCsv( ScenarioSweep.grid(new double[][] {
+                        {0.01, 0.02, 0.03}, {100, 200, 300, 400} }),
+                     "results.csv");
+     sweep.printReport();
+*/
+
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+public class ScenarioSweep
+{
+  private static final String STATS_KEY = "evaluate";
+
+  private final CalcModel model;
+  private final LatencyStats stats = new LatencyStats();
+
+  private final AtomicLong numDone = new AtomicLong(0);
+  private final AtomicLong numFailed = new AtomicLong(0);
+  private volatile long numRuns = -1;       // -1 if unknown
+  private volatile long startTime = 0;
+  private volatile long endTime = 0;
+
+
+
+  public ScenarioSweep(CalcModel model)
+  {  this.model = model;  }
+
+
+
+  // ---------------------------- samplers ----------------------------------
+
+
+  public static Iterator<double[]> grid(final double[][] axes)
+  /* every combination of the axes' values (the last axis varies fastest);
+     the combinations are made as they are needed */
+  {
+    long n = 1;
+    for (double[] axis : axes)
+      n *= axis.length;
+    final long total = (axes.length == 0) ? 0 : n;
+
+    return new SizedIterator() {
+      long idx = 0;
+
+      public long size()
+      {  return total;  }
+
+      public boolean hasNext()
+      {  return idx < total;  }
+
+      public double[] next()
+      {
+        if (idx >= total)
+          throw new NoSuchElementException();
+        double[] vals = new double[axes.length];
+        long rem = idx++;
+        for (int i = axes.length-1; i >= 0; i--) {
+          vals[i] = axes[i][(int)(rem % axes[i].length)];
+          rem /= axes[i].length;
+        }
+        return vals;
+      }
+    };
+  }  // end of grid()
+
+
+
+  public static Iterator<double[]> random(final double[] mins, final double[] maxs, 
+                                             final long numSamples, long seed)
+  // numSamples parameter sets, each value uniformly between its min and max
+  {
+    final Random rand = new Random(seed);
+    return new SizedIterator() {
+      long idx = 0;
+
+      public long size()
+      {  return numSamples;  }
+
+      public boolean hasNext()
+      {  return idx < numSamples;  }
+
+      public double[] next()
+      {
+        if (idx >= numSamples)
+          throw new NoSuchElementException();
+        idx++;
+        double[] vals = new double[mins.length];
+        for (int i = 0; i < vals.length; i++)
+          vals[i] = mins[i] + rand.nextDouble()*(maxs[i] - mins[i]);
+        return vals;
+      }
+    };
+  }  // end of random()
+
+
+
+  private static abstract class SizedIterator implements Iterator<double[]>
+  // lets the sweep report its progress as a fraction
+  {
+    public abstract long size();
+  }
+
+
+
+  // ---------------------------- running ----------------------------------
+
+
+  public void run(Iterator<double[]> params, final SweepListener listener)
+  /* evaluate every parameter set, with one worker thread per office;
+     returns when they have all been done */
+  {
+    final Iterator<double[]> iter = params;
+    numRuns = (params instanceof SizedIterator) ? ((SizedIterator) params).size() : -1;
+    numDone.set(0);
+    numFailed.set(0);
+    stats.reset();
+    startTime = System.currentTimeMillis();
+    endTime = 0;
+    final AtomicLong nextIdx = new AtomicLong(0);
+    final AtomicBoolean isStopping = new AtomicBoolean(false);
+
+    int numWorkers = Math.max(1, model.getPool().size());
+    ExecutorService exec = Executors.newFixedThreadPool(numWorkers);
+    ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+    for (int i = 0; i < numWorkers; i++) {
+      workers.add( exec.submit(new Runnable() {
+        public void run()
+        {
+          while (true) {
+            double[] inputs;
+            long idx;
+            synchronized(iter) {
+              if (isStopping.get() || !iter.hasNext())
+                return;
+              inputs = iter.next();
+              idx = nextIdx.getAndIncrement();
+            }
+            long t0 = System.currentTimeMillis();
+            double[] outputs = model.evaluate(inputs, false);
+            stats.record(STATS_KEY, System.currentTimeMillis() - t0, outputs != null);
+            if (outputs == null)
+              numFailed.incrementAndGet();
+            numDone.incrementAndGet();
+            synchronized(listener) {
+              listener.result(idx, inputs, outputs);
+            }
+          }
+        }
+      }));
+    }
+
+    /* wait for every worker, even if one fails, so the listener (e.g.
+       runToCsv()'s writer) is not used after run() returns; if this 
+       thread is interrupted, the workers stop after their current run */
+    boolean isInterrupted = false;
+    for (Future<?> w : workers) {
+      while (true) {
+        try {
+          w.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          isInterrupted = true;
+          isStopping.set(true);
+        }
+        catch (ExecutionException e) {
+          System.out.println("Sweep worker failed: " + e.getCause());
+          break;
+        }
+      }
+    }
+    exec.shutdown();
+    endTime = System.currentTimeMillis();
+    if (isInterrupted)
+      Thread.currentThread().interrupt();
+  }  // end of run()
+
+
+
+  public boolean runToCsv(Iterator<double[]> params, String fnm)
+  /* write a header row, then a row for each run as it finishes:
+     run index, inputs, outputs (empty if the run failed) */
+  {
+    try {
+      final BufferedWriter out = new BufferedWriter( new OutputStreamWriter(
+                            new FileOutputStream(fnm), StandardCharsets.UTF_8));
+      try {
+        StringBuilder header = new StringBuilder("run");
+        for (String nm : model.getInputNames())
+          header.append(',').append(csvQuote(nm));
+        for (String nm : model.getOutputNames())
+          header.append(',').append(csvQuote(nm));
+        out.write(header.toString());
+        out.newLine();
+
+        final int numOutputs = model.getOutputNames().length;
+        final IOException[] writeErr = new IOException[1];
+        run(params, new SweepListener() {
+          public void result(long runIdx, double[] inputs, double[] outputs)
+          {
+            if (writeErr[0] != null)
+              return;
+            StringBuilder sb = new StringBuilder();
+            sb.append(runIdx);
+            for (double d : inputs)
+              sb.append(',').append(d);
+            for (int i = 0; i < numOutputs; i++) {
+              sb.append(',');
+              if ((outputs != null) && !Double.isNaN(outputs[i]))
+                sb.append(outputs[i]);
+            }
+            try {
+              out.write(sb.toString());
+              out.newLine();
+            }
+            catch (IOException e) 
+            {  writeErr[0] = e;  }
+          }
+        });
+        if (writeErr[0] != null)
+          throw writeErr[0];
+      }
+      finally {
+        out.close();
+      }
+      return true;
+    }
+    catch (IOException e) {
+      System.out.println("Could not write sweep results to " + fnm + ": " + e);
+      return false;
+    }
+  }  // end of runToCsv()
+
+
+
+  private static String csvQuote(String s)
+  {  return "\"" + s.replace("\"", "\"\"") + "\"";  }
+
+
+
+  // ---------------------------- progress ----------------------------------
+
+
+  public long getDoneCount()
+  {  return numDone.get();  }
+
+  public long getFailedCount()
+  {  return numFailed.get();  }
+
+  public long getRunCount()
+  // the number of parameter sets, or -1 if the sampler did not say
+  {  return numRuns;  }
+
+
+  public double getProgress()
+  // fraction done (0 - 1), or -1 if the number of runs is unknown
+  {
+    long n = numRuns;
+    if (n < 0)
+      return -1;
+    return (n == 0) ? 1 : ((double) numDone.get())/n;
+  }
+
+
+  public double getThroughput()
+  // evaluations per second so far
+  {
+    if (startTime == 0)
+      return 0;
+    long end = (endTime == 0) ? System.currentTimeMillis() : endTime;
+    long elapsed = Math.max(1, end - startTime);
+    return numDone.get()*1000.0/elapsed;
+  }
+
+
+  public long getLatencyPercentile(double percent)
+  // ms per evaluation, e.g. percent == 95
+  {  return stats.getPercentile(STATS_KEY, percent);  }
+
+
+
+  public void printReport()
+  {
+    System.out.println("Sweep: " + numDone.get() + 
+                       ((numRuns >= 0) ? (" of " + numRuns) : "") + " runs" +
+                       "; failed: " + numFailed.get() +
+                       "; offices: " + model.getPool().size() +
+                       String.format("; %.1f runs/sec", getThroughput()) +
+                       "; median: " + getLatencyPercentile(50) + " ms" +
+                       "; 95%: " + getLatencyPercentile(95) + " ms");
+  }  // end of printReport()
+
+}  // end of ScenarioSweep class
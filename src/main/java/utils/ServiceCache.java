@@ -0,0 +1,90 @@
+// ServiceCache.java
+
+/* A cache of stateless office services (e.g. DispatchHelper, 
+   FunctionAccess, GraphicProvider, TypeDetection), so hot paths don't
+   make a new remote instance on every call. Each creation costs several
+   URP round trips.
+
+   There is one cache per OfficeConnection, plus one for Lo's static
+   connection. A cache is cleared when its bridge is disposed, since
+   the cached instances belong to the dead office.
+
+   Only use this for services that keep no per-call state.
+*/
+
+package utils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.star.lang.*;
+import com.sun.star.uno.*;
+
+import com.sun.star.uno.Exception;
+
+
+
+public class ServiceCache
+{
+  private final ConcurrentHashMap<String, Object> services = 
+                                       new ConcurrentHashMap<String, Object>();
+
+  private final AtomicLong numCreated = new AtomicLong(0);
+  private final AtomicLong numReused = new AtomicLong(0);
+
+
+
+  public <T> T get(Class<T> aType, String serviceName,
+                        XMultiComponentFactory mcFactory, XComponentContext xcc)
+  // return the cached service, creating it if necessary
+  {
+    Object service = services.get(serviceName);
+    if (service != null) {
+      numReused.incrementAndGet();
+      return Lo.qi(aType, service);
+    }
+
+    if ((xcc == null) || (mcFactory == null)) {
+      System.out.println("No office connection found");
+      return null;
+    }
+    try {
+      service = mcFactory.createInstanceWithContext(serviceName, xcc);
+    }
+    catch (Exception e) {
+      System.out.println("Couldn't create interface for \"" + serviceName + "\": " + e);
+      return null;
+    }
+    if (service == null)
+      return null;
+    numCreated.incrementAndGet();
+
+    Object prev = services.putIfAbsent(serviceName, service);
+    return Lo.qi(aType, (prev != null) ? prev : service);   // another thread may have won
+  }  // end of get()
+
+
+
+  public void clear()
+  {  services.clear();  }
+
+
+  public int size()
+  {  return services.size();  }
+
+
+  public long getCreatedCount()
+  {  return numCreated.get();  }
+
+
+  public long getReusedCount()
+  // the number of remote creations avoided
+  {  return numReused.get();  }
+
+
+  public void printStats()
+  {  System.out.println("Service cache: " + services.size() + " services; " +
+                  numCreated.get() + " created; " + numReused.get() + " reused");
+  }
+
+}  // end of ServiceCache class
@@ -0,0 +1,308 @@
+// SheetChangeFeed.java
+
+/* Reports the cells of a sheet whose values have changed, in batches.
+
+   The feed keeps a snapshot of the sheet's used range, split into
+   blocks of rows. A SheetChangeTracker marks the blocks changed by
+   each edit (every block if the feed is not given the sheet's
+   document). The feed waits until there have been no modifications
+   for the debounce time (or until maxWait has passed), and then
+   re-fetches only the marked blocks, in bands of at most
+   Calc.MAX_CELLS_PER_READ cells. Blocks that differ from the snapshot
+   are compared cell by cell, and the changes are sent to the
+   listeners as one list. So pasting 10,000 cells produces one batch,
+   rather than 10,000 callbacks. A change to the size of the used
+   range causes a full rescan.
+
+   Office calls the tracker while holding its own lock, so the feed
+   never holds a lock that the tracker waits for while calling office.
+
+   Typical use:
+     SheetChangeFeed feed = new SheetChangeFeed(sheet, doc);
+     feed.addListener( new SheetChangeListener() {
+       public void changed(List<CellChange> changes)
+       {  ...  }
+     });
+     feed.start();
+     ...
+     feed.close();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SheetChangeFeed implements AutoCloseable
+{
+  public static final int DEFAULT_BLOCK_SIZE = 1000;     // rows
+  public static final long DEFAULT_DEBOUNCE = 200;       // ms
+
+  private final XSpreadsheet sheet;
+  private final int blockSize;
+  private final long debounce;
+  private long maxWait;
+  private final SheetChangeTracker tracker;
+
+  private final CopyOnWriteArrayList<SheetChangeListener> listeners = 
+                             new CopyOnWriteArrayList<SheetChangeListener>();
+
+  // the snapshot; only used by the executor's thread
+  private int numCols = 0, numRows = 0;
+  private ArrayList<Object[][]> blocks = new ArrayList<Object[][]>();
+  private boolean hasSnapshot = false;
+
+  private ScheduledExecutorService executor = null;
+  private ScheduledFuture<?> pending = null;
+  private long firstModTime = 0;     // of the modifications waiting to be scanned
+
+  private long numModifications = 0;
+  private long numBatches = 0;
+  private long numBlockFetches = 0;
+
+
+
+  public SheetChangeFeed(XSpreadsheet sheet)
+  {  this(sheet, null, DEFAULT_BLOCK_SIZE, DEFAULT_DEBOUNCE);  }
+
+
+  public SheetChangeFeed(XSpreadsheet sheet, XSpreadsheetDocument doc)
+  {  this(sheet, doc, DEFAULT_BLOCK_SIZE, DEFAULT_DEBOUNCE);  }
+
+
+  public SheetChangeFeed(XSpreadsheet sheet, XSpreadsheetDocument doc,
+                                      int blockSize, long debounce)
+  {
+    this.sheet = sheet;
+    this.blockSize = Math.max(1, blockSize);
+    this.debounce = Math.max(0, debounce);
+    maxWait = 10*this.debounce;
+    tracker = new SheetChangeTracker(sheet, doc, this.blockSize, new Runnable() {
+      public void run()
+      {  scheduleScan();  }
+    });
+  }  // end of SheetChangeFeed()
+
+
+
+  public void addListener(SheetChangeListener listener)
+  {  listeners.add(listener);  }
+
+  public void removeListener(SheetChangeListener listener)
+  {  listeners.remove(listener);  }
+
+
+  public void setMaxWait(long ms)
+  // a batch is sent at least this often while modifications continue
+  {  maxWait = Math.max(debounce, ms);  }
+
+
+
+  public void start()
+  // start listening for changes, then take the first snapshot
+  {
+    ScheduledExecutorService exec;
+    synchronized(this) {
+      if (executor != null)
+        return;
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        { Thread t = new Thread(r, "SheetChangeFeed");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      exec = executor;
+    }
+    tracker.start();      // first, so no edit made before the snapshot is missed
+    try {
+      exec.submit(new Runnable() {
+        public void run()
+        {  snapshot();  }
+      }).get();
+    }
+    catch (java.lang.Exception e)
+    {  System.out.println("Could not snapshot sheet: " + e);  }
+  }  // end of start()
+
+
+
+  public void close()
+  {
+    tracker.close();      // not while holding a lock, since office calls the tracker
+    synchronized(this) {
+      if (executor == null)
+        return;
+      executor.shutdownNow();
+      executor = null;
+    }
+  }  // end of close()
+
+
+
+  private synchronized void scheduleScan()
+  /* called by the tracker (on office's thread) after each change;
+     schedule a scan, replacing any scan that has not started yet */
+  {
+    numModifications++;
+    if (executor == null)
+      return;
+    long now = System.currentTimeMillis();
+    if ((pending != null) && !pending.isDone()) {
+      if (now - firstModTime >= maxWait)
+        return;     // leave the scan due soon in place
+      pending.cancel(false);
+    }
+    else
+      firstModTime = now;
+    pending = executor.schedule(new Runnable() {
+      public void run()
+      {  scan();  }
+    }, debounce, TimeUnit.MILLISECONDS);
+  }  // end of scheduleScan()
+
+
+
+  // --------------------- scanning ------------------------------
+
+
+  private void snapshot()
+  {
+    tracker.takeStaleBlocks(0);     // the snapshot includes the earlier changes
+    hasSnapshot = true;
+    CellRangeAddress used = Calc.getAddress( Calc.findUsedRange(sheet));
+    numCols = used.EndColumn + 1;   // from column A and row 1
+    numRows = used.EndRow + 1;
+    blocks.clear();
+    for (int rowStart = 0; rowStart < numRows; rowStart += blockSize)
+      blocks.add( fetchBlock(rowStart) );
+    tracker.updateFormulaBlocks();
+  }  // end of snapshot()
+
+
+
+  private void scan()
+  // re-fetch the blocks marked by the tracker
+  {
+    if (!hasSnapshot)
+      return;      // start()'s snapshot will include the changes
+    try {
+      ArrayList<CellChange> changes = new ArrayList<CellChange>();
+      BitSet stale = tracker.takeStaleBlocks(blocks.size());
+      CellRangeAddress used = Calc.getAddress( Calc.findUsedRange(sheet));
+      if ((used.EndColumn+1 != numCols) || (used.EndRow+1 != numRows))
+        rescanAll(changes);
+      else {
+        for (int i = stale.nextSetBit(0); i >= 0; i = stale.nextSetBit(i+1))
+          rescanBlock(i, changes);
+        if (!stale.isEmpty())
+          tracker.updateFormulaBlocks();
+      }
+
+      if (!changes.isEmpty()) {
+        numBatches++;
+        List<CellChange> batch = Collections.unmodifiableList(changes);
+        for (SheetChangeListener listener : listeners)
+          listener.changed(batch);
+      }
+    }
+    catch (com.sun.star.uno.RuntimeException e)
+    {  System.out.println("Could not scan sheet: " + e);  }
+  }  // end of scan()
+
+
+
+  private void rescanAll(ArrayList<CellChange> changes)
+  // the used range has changed size; compare against the old snapshot
+  {
+    ArrayList<Object[][]> oldBlocks = blocks;
+    int oldCols = numCols;
+    int oldRows = numRows;
+
+    blocks = new ArrayList<Object[][]>();
+    snapshot();
+    int maxCols = Math.max(oldCols, numCols);
+    int maxRows = Math.max(oldRows, numRows);
+
+    for (int r = 0; r < maxRows; r++) {
+      for (int c = 0; c < maxCols; c++) {
+        Object oldVal = valueAt(oldBlocks, oldCols, oldRows, c, r);
+        Object newVal = valueAt(blocks, numCols, numRows, c, r);
+        if (!oldVal.equals(newVal))
+          changes.add( new CellChange(c, r, oldVal, newVal));
+      }
+    }
+  }  // end of rescanAll()
+
+
+
+  private Object valueAt(ArrayList<Object[][]> bs, int nCols, int nRows, int c, int r)
+  {
+    if ((c >= nCols) || (r >= nRows))
+      return "";
+    return bs.get(r/blockSize)[r%blockSize][c];
+  }
+
+
+
+  private void rescanBlock(int i, ArrayList<CellChange> changes)
+  {
+    int rowStart = i*blockSize;
+    Object[][] block = fetchBlock(rowStart);
+    Object[][] oldBlock = blocks.get(i);
+    if (Arrays.deepEquals(block, oldBlock))
+      return;
+
+    for (int r = 0; r < block.length; r++)
+      for (int c = 0; c < block[r].length; c++)
+        if (!oldBlock[r][c].equals(block[r][c]))
+          changes.add( new CellChange(c, rowStart + r, oldBlock[r][c], block[r][c]));
+    blocks.set(i, block);
+  }  // end of rescanBlock()
+
+
+
+  private Object[][] fetchBlock(int rowStart)
+  // fetch a block in bands of at most Calc.MAX_CELLS_PER_READ cells
+  {
+    int rowEnd = Math.min(rowStart + blockSize, numRows) - 1;
+    Object[][] block = new Object[rowEnd - rowStart + 1][];
+    int bandSize = Calc.getBandSize(numCols);
+    for (int r = rowStart; r <= rowEnd; r += bandSize) {
+      int bandEnd = Math.min(r + bandSize - 1, rowEnd);
+      XCellRange range = Calc.getCellRange(sheet, 0, r, numCols-1, bandEnd);
+      Object[][] band = Lo.qi(XCellRangeData.class, range).getDataArray();
+      System.arraycopy(band, 0, block, r - rowStart, band.length);
+    }
+    numBlockFetches++;
+    return block;
+  }  // end of fetchBlock()
+
+
+
+  // ------------------------- stats -----------------------------
+
+
+  public long getModificationCount()
+  {  return numModifications;  }
+
+  public long getBatchCount()
+  {  return numBatches;  }
+
+  public long getBlockFetchCount()
+  {  return numBlockFetches;  }
+
+
+  public void printStats()
+  {
+    System.out.println("Change feed: modifications: " + numModifications +
+                       "; batches: " + numBatches +
+                       "; block fetches: " + numBlockFetches);
+  }
+
+}  // end of SheetChangeFeed class
@@ -0,0 +1,16 @@
+// SheetChangeListener.java
+
+/* Interface used by objects subscribed to a SheetChangeFeed.
+   changed() is called once for each batch of changes, on the feed's
+   thread, not on the office's callback thread.
+*/
+
+package utils;
+
+import java.util.*;
+
+
+public interface SheetChangeListener
+{
+  void changed(List<CellChange> changes);
+}
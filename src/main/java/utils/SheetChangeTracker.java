@@ -0,0 +1,234 @@
+// SheetChangeTracker.java
+
+/* Records which blocks of rows of a sheet have changed, for classes
+   that keep a copy of the sheet (SheetMirror, SheetChangeFeed).
+
+   The changed ranges come from the document's XChangesNotifier
+   ("cell-change" events), so an edit only marks the blocks it touched.
+   Blocks holding formulae are marked by every change, since their
+   results may depend on the changed cells. Anything else marks every
+   block: a structural change (e.g. "insert-rows"), a change whose range
+   cannot be read, and a sheet modification that office did not report
+   as a change (e.g. some API writes). Without a document, every
+   modification marks every block.
+
+   Office calls the listeners while holding its own lock, so they only
+   set flags: no lock of this class is held during a call to office.
+   The owner takes the marked blocks with takeStaleBlocks() before
+   re-reading them, so changes made during the re-read are kept for
+   the next one.
+
+   Typical use:
+     SheetChangeTracker tracker = new SheetChangeTracker(sheet, doc, 1000, null);
+     tracker.start();
+     ...
+     BitSet stale = tracker.takeStaleBlocks(numBlocks);
+     ...
+     tracker.close();
+*/
+
+package utils;
+
+import java.util.*;
+
+import com.sun.star.lang.EventObject;
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+import com.sun.star.uno.AnyConverter;
+import com.sun.star.util.*;
+
+
+
+public class SheetChangeTracker implements XModifyListener, XChangesListener, AutoCloseable
+{
+  private final XSpreadsheet sheet;
+  private final XSpreadsheetDocument doc;    // may be null
+  private final int blockSize;
+  private final Runnable onChange;           // may be null
+
+  // guarded by this; never held during a call to office
+  private final BitSet staleBlocks = new BitSet();
+  private BitSet formulaBlocks = new BitSet();
+  private boolean isAllStale = false;
+  private boolean isExplained = false;   // a change to this sheet came before the modification
+
+  private volatile boolean isListening = false;
+  private volatile boolean hasChangesNotifier = false;
+
+
+
+  public SheetChangeTracker(XSpreadsheet sheet, XSpreadsheetDocument doc,
+                                        int blockSize, Runnable onChange)
+  /* onChange is run (on office's thread) after blocks have been
+     marked; it must not call office or wait for a thread that does */
+  {
+    this.sheet = sheet;
+    this.doc = doc;
+    this.blockSize = Math.max(1, blockSize);
+    this.onChange = onChange;
+  }  // end of SheetChangeTracker()
+
+
+
+  public void start()
+  {
+    if (isListening)
+      return;
+    XModifyBroadcaster mb = Lo.qi(XModifyBroadcaster.class, sheet);
+    if (mb == null) {
+      System.out.println("Sheet does not broadcast modifications; changes will be missed");
+      return;
+    }
+    XChangesNotifier cn = (doc == null) ? null : Lo.qi(XChangesNotifier.class, doc);
+    if (cn != null) {
+      cn.addChangesListener(this);
+      hasChangesNotifier = true;
+    }
+    mb.addModifyListener(this);
+    isListening = true;
+  }  // end of start()
+
+
+
+  public void close()
+  // called without holding any lock, since office calls the listeners
+  {
+    if (!isListening)
+      return;
+    isListening = false;
+    try {
+      Lo.qi(XModifyBroadcaster.class, sheet).removeModifyListener(this);
+      if (hasChangesNotifier)
+        Lo.qi(XChangesNotifier.class, doc).removeChangesListener(this);
+    }
+    catch (com.sun.star.uno.RuntimeException e) {}   // office has gone
+  }  // end of close()
+
+
+
+  // ---------------------- the owner's side ---------------------------
+
+
+  public synchronized BitSet takeStaleBlocks(int numBlocks)
+  // the blocks marked since the last call (below numBlocks); clears them
+  {
+    BitSet stale = new BitSet(numBlocks);
+    if (isAllStale)
+      stale.set(0, numBlocks);
+    else
+      stale.or( staleBlocks.get(0, numBlocks));
+    staleBlocks.clear();
+    isAllStale = false;
+    return stale;
+  }  // end of takeStaleBlocks()
+
+
+  public synchronized boolean hasStaleBlocks()
+  {  return isAllStale || !staleBlocks.isEmpty();  }
+
+
+  public void invalidateAll()
+  {
+    synchronized(this) {
+      isAllStale = true;
+    }
+    notifyOwner();
+  }
+
+
+  public void updateFormulaBlocks()
+  /* find the blocks holding formulae; call after re-reading blocks,
+     since an edit may have added or removed formulae */
+  {
+    BitSet fBlocks = new BitSet();
+    try {
+      XSheetCellRanges ranges = Lo.qi(XCellRangesQuery.class, sheet).
+                                   queryContentCells((short) CellFlags.FORMULA);
+      if (ranges != null) {
+        for (CellRangeAddress addr : ranges.getRangeAddresses())
+          fBlocks.set(addr.StartRow/blockSize, addr.EndRow/blockSize + 1);
+      }
+    }
+    catch (com.sun.star.uno.RuntimeException e)
+    {  System.out.println("Could not find formula cells: " + e);  }
+    synchronized(this) {
+      formulaBlocks = fBlocks;
+    }
+  }  // end of updateFormulaBlocks()
+
+
+
+  // ---------------------- office's side ------------------------------
+
+
+  public void changesOccurred(ChangesEvent event)
+  {
+    // read the changed ranges before locking, since this calls office
+    ArrayList<CellRangeAddress> addrs = new ArrayList<CellRangeAddress>();
+    boolean isAll = false;
+    try {
+      int sheetIdx = Calc.getAddress( Lo.qi(XCellRange.class, sheet)).Sheet;
+      for (ElementChange change : event.Changes) {
+        XCellRangeAddressable ra = Lo.qi(XCellRangeAddressable.class,
+                                         change.ReplacedElement);
+        if (ra == null) {
+          isAll = true;
+          break;
+        }
+        CellRangeAddress addr = ra.getRangeAddress();
+        if (addr.Sheet != sheetIdx)
+          continue;    // only marks formula blocks
+        if (!"cell-change".equals( AnyConverter.toString(change.Accessor))) {
+          isAll = true;      // rows or columns inserted or deleted
+          break;
+        }
+        addrs.add(addr);
+      }
+    }
+    catch (com.sun.star.lang.IllegalArgumentException e)
+    {  isAll = true;  }
+    catch (com.sun.star.uno.RuntimeException e)
+    {  isAll = true;  }
+
+    synchronized(this) {
+      if (isAll || !addrs.isEmpty())
+        isExplained = true;     // office will also report a modification
+      if (isAll)
+        isAllStale = true;
+      else {
+        for (CellRangeAddress addr : addrs)
+          staleBlocks.set(addr.StartRow/blockSize, addr.EndRow/blockSize + 1);
+        staleBlocks.or(formulaBlocks);
+      }
+    }
+    notifyOwner();
+  }  // end of changesOccurred()
+
+
+
+  public void modified(EventObject event)
+  /* office reports a change before the modification it causes; a
+     modification without one is marked as changing every block */
+  {
+    synchronized(this) {
+      if (hasChangesNotifier && isExplained)
+        isExplained = false;
+      else
+        isAllStale = true;
+    }
+    notifyOwner();
+  }  // end of modified()
+
+
+  public void disposing(EventObject event)
+  {  isListening = false;  }
+
+
+
+  private void notifyOwner()
+  {
+    if (onChange != null)
+      onChange.run();
+  }
+
+}  // end of SheetChangeTracker class
@@ -0,0 +1,367 @@
+// SheetDiff.java
+
+/* Compares two spreadsheet documents (or two sheets), reporting the
+   sheets that were added or removed, and for each sheet in both
+   documents, the rows that were filled (empty before) or emptied,
+   and the cells that were added, removed or changed.
+
+   Rows are compared by position: rows are not aligned, so an inserted
+   or deleted row is not detected as such, but shows up as changes to
+   every row below it.
+
+   Each sheet is read as blocks of rows with one getDataArray() call
+   per block, and the two sides are read at the same time by two
+   threads. Identical blocks are skipped; only blocks that differ are
+   compared row by row and cell by cell.
+
+   If part of a sheet cannot be read, the diff is incomplete: the
+   failure is recorded (see getFailures()), isComplete() is false,
+   and isEmpty() is false even if no differences were found.
+
+   The documents may be loaded in different offices (e.g. two
+   connections from an OfficePool), in which case the two offices do
+   the reading in parallel.
+
+   Typical use:
+     SheetDiff diff = SheetDiff.compare(beforeDoc, afterDoc);
+     diff.print();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SheetDiff
+{
+  private static final int MAX_BLOCK_ROWS = 2000;
+
+  private final ArrayList<String> addedSheets = new ArrayList<String>();
+  private final ArrayList<String> removedSheets = new ArrayList<String>();
+  private final LinkedHashMap<String, SheetChanges> sheetChanges = 
+                                       new LinkedHashMap<String, SheetChanges>();
+  private final ArrayList<String> failures = new ArrayList<String>();
+                  // the parts of sheets that could not be read
+
+  private int numBlocks = 0;
+  private int numSkippedBlocks = 0;
+
+
+
+  public static class SheetChanges
+  // the differences between two versions of one sheet
+  {
+    private final String name;
+    private final ArrayList<CellChange> changedCells = new ArrayList<CellChange>();
+    private final ArrayList<CellChange> addedCells = new ArrayList<CellChange>();
+    private final ArrayList<CellChange> removedCells = new ArrayList<CellChange>();
+    private final ArrayList<Integer> addedRows = new ArrayList<Integer>();
+    private final ArrayList<Integer> removedRows = new ArrayList<Integer>();
+
+    SheetChanges(String name)
+    {  this.name = name;  }
+
+    public String getName()
+    {  return name;  }
+
+    public List<CellChange> getChangedCells()
+    {  return changedCells;  }
+
+    public List<CellChange> getAddedCells()    // that were empty before
+    {  return addedCells;  }
+
+    public List<CellChange> getRemovedCells()  // that are empty after
+    {  return removedCells;  }
+
+    public List<Integer> getAddedRows()
+    // rows that were empty before (0-based); not inserted rows
+    {  return addedRows;  }
+
+    public List<Integer> getRemovedRows()
+    // rows that are empty after; not deleted rows
+    {  return removedRows;  }
+
+    public boolean isEmpty()
+    {  return changedCells.isEmpty() && addedCells.isEmpty() && 
+              removedCells.isEmpty() && addedRows.isEmpty() && removedRows.isEmpty();  }
+  }  // end of SheetChanges class
+
+
+
+  private SheetDiff() {}
+
+
+  public List<String> getAddedSheets()
+  {  return addedSheets;  }
+
+  public List<String> getRemovedSheets()
+  {  return removedSheets;  }
+
+  public Collection<SheetChanges> getSheetChanges()
+  // only sheets in both documents which have changed
+  {  return sheetChanges.values();  }
+
+  public SheetChanges getSheetChanges(String sheetName)
+  {  return sheetChanges.get(sheetName);  }
+
+  public boolean isEmpty()
+  // no differences, and every block was compared
+  {  return addedSheets.isEmpty() && removedSheets.isEmpty() && 
+            sheetChanges.isEmpty() && failures.isEmpty();  }
+
+  public boolean isComplete()
+  {  return failures.isEmpty();  }
+
+  public List<String> getFailures()
+  // e.g. "Sheet1: rows 2001 to 4000"
+  {  return failures;  }
+
+  public int getBlockCount()
+  {  return numBlocks;  }
+
+  public int getSkippedBlockCount()   // blocks that are the same on both sides
+  {  return numSkippedBlocks;  }
+
+
+
+  // ---------------------- comparing ----------------------------------
+
+
+  public static SheetDiff compare(XSpreadsheetDocument before, XSpreadsheetDocument after)
+  {
+    SheetDiff diff = new SheetDiff();
+    ExecutorService readers = Executors.newFixedThreadPool(2);
+    try {
+      String[] beforeNames = Calc.getSheetNames(before);
+      String[] afterNames = Calc.getSheetNames(after);
+      HashSet<String> afterSet = new HashSet<String>(Arrays.asList(afterNames));
+      HashSet<String> beforeSet = new HashSet<String>(Arrays.asList(beforeNames));
+
+      for (String nm : beforeNames) {
+        if (!afterSet.contains(nm))
+          diff.removedSheets.add(nm);
+        else
+          diff.compareSheets(nm, Calc.getSheet(before, nm), 
+                                 Calc.getSheet(after, nm), readers);
+      }
+      for (String nm : afterNames)
+        if (!beforeSet.contains(nm))
+          diff.addedSheets.add(nm);
+    }
+    finally {
+      readers.shutdownNow();
+    }
+    return diff;
+  }  // end of compare()
+
+
+
+  public static SheetDiff compare(XSpreadsheet before, XSpreadsheet after)
+  {
+    SheetDiff diff = new SheetDiff();
+    ExecutorService readers = Executors.newFixedThreadPool(2);
+    try {
+      diff.compareSheets(Calc.getSheetName(before), before, after, readers);
+    }
+    finally {
+      readers.shutdownNow();
+    }
+    return diff;
+  }  // end of compare()
+
+
+
+  private void compareSheets(String name, XSpreadsheet before, 
+                           XSpreadsheet after, ExecutorService readers)
+  {
+    SheetChanges changes = new SheetChanges(name);
+
+    Future<CellRangeAddress> beforeUsed = readers.submit(usedRange(before));
+    Future<CellRangeAddress> afterUsed = readers.submit(usedRange(after));
+    CellRangeAddress bUsed = getResult(beforeUsed);
+    CellRangeAddress aUsed = getResult(afterUsed);
+    if ((bUsed == null) || (aUsed == null)) {
+      System.out.println("Could not read the used range of " + name);
+      failures.add(name + ": used range");
+      return;
+    }
+
+    // compare from A1 to the end of both used ranges
+    int numCols = Math.max(bUsed.EndColumn, aUsed.EndColumn) + 1;
+    int numRows = Math.max(bUsed.EndRow, aUsed.EndRow) + 1;
+    int blockRows = Math.min(MAX_BLOCK_ROWS, Calc.getBandSize(numCols));
+
+    for (int rowStart = 0; rowStart < numRows; rowStart += blockRows) {
+      int rowEnd = Math.min(rowStart + blockRows, numRows) - 1;
+      Future<Object[][]> bBlock = readers.submit(
+                       readBlock(before, bUsed, numCols, rowStart, rowEnd));
+      Future<Object[][]> aBlock = readers.submit(
+                       readBlock(after, aUsed, numCols, rowStart, rowEnd));
+      Object[][] bVals = getResult(bBlock);
+      Object[][] aVals = getResult(aBlock);
+      if ((bVals == null) || (aVals == null)) {
+        String rows = "rows " + (rowStart+1) + " to " + (rowEnd+1);
+        System.out.println("Could not read " + rows + " of " + name);
+        failures.add(name + ": " + rows);
+        continue;
+      }
+
+      numBlocks++;
+      if (Arrays.deepEquals(bVals, aVals)) {     // both are already in memory
+        numSkippedBlocks++;
+        continue;
+      }
+      compareBlock(rowStart, bVals, aVals, changes);
+    }
+
+    if (!changes.isEmpty())
+      sheetChanges.put(name, changes);
+  }  // end of compareSheets()
+
+
+
+  private void compareBlock(int rowStart, Object[][] bVals, Object[][] aVals, 
+                                                      SheetChanges changes)
+  {
+    for (int r = 0; r < bVals.length; r++) {
+      Object[] bRow = bVals[r];
+      Object[] aRow = aVals[r];
+      if (Arrays.equals(bRow, aRow))
+        continue;
+      int row = rowStart + r;
+      if (isEmptyRow(bRow))
+        changes.addedRows.add(row);
+      else if (isEmptyRow(aRow))
+        changes.removedRows.add(row);
+      else {
+        for (int c = 0; c < bRow.length; c++) {
+          if (bRow[c].equals(aRow[c]))
+            continue;
+          CellChange cc = new CellChange(c, row, bRow[c], aRow[c]);
+          if (isEmpty(bRow[c]))
+            changes.addedCells.add(cc);
+          else if (isEmpty(aRow[c]))
+            changes.removedCells.add(cc);
+          else
+            changes.changedCells.add(cc);
+        }
+      }
+    }
+  }  // end of compareBlock()
+
+
+
+  private static boolean isEmpty(Object o)
+  {  return (o == null) || "".equals(o);  }
+
+
+  private static boolean isEmptyRow(Object[] row)
+  {
+    for (Object o : row)
+      if (!isEmpty(o))
+        return false;
+    return true;
+  }
+
+
+
+  private static Callable<CellRangeAddress> usedRange(final XSpreadsheet sheet)
+  {
+    return new Callable<CellRangeAddress>() {
+      public CellRangeAddress call()
+      {  return Calc.getAddress( Calc.findUsedRange(sheet));  }
+    };
+  }  // end of usedRange()
+
+
+
+  private static Callable<Object[][]> readBlock(final XSpreadsheet sheet, 
+                      final CellRangeAddress used, final int numCols,
+                      final int rowStart, final int rowEnd)
+  /* read the block, or make an empty one if it is outside the used range;
+     rows are padded with "" to numCols */
+  {
+    return new Callable<Object[][]>() {
+      public Object[][] call()
+      {
+        int readEnd = Math.min(rowEnd, used.EndRow);
+        Object[][] vals = null;
+        if (rowStart <= readEnd)
+          vals = Calc.getCellRangeArray( Calc.getCellRange(sheet, 0, rowStart,
+                                                      used.EndColumn, readEnd));
+        Object[][] block = new Object[rowEnd - rowStart + 1][];
+        for (int r = 0; r < block.length; r++) {
+          if ((vals != null) && (r < vals.length) && (vals[r].length == numCols))
+            block[r] = vals[r];
+          else {
+            block[r] = new Object[numCols];
+            Arrays.fill(block[r], "");
+            if ((vals != null) && (r < vals.length))
+              System.arraycopy(vals[r], 0, block[r], 0, vals[r].length);
+          }
+        }
+        return block;
+      }
+    };
+  }  // end of readBlock()
+
+
+
+  private static <T> T getResult(Future<T> f)
+  {
+    try {
+      return f.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException e) {
+      System.out.println("Read failed: " + e.getCause());
+      return null;
+    }
+  }  // end of getResult()
+
+
+
+  // ------------------------ output -------------------------------
+
+
+  public void print()
+  {
+    if (isEmpty()) {
+      System.out.println("No differences");
+      return;
+    }
+    for (String failure : failures)
+      System.out.println("Not compared: " + failure);
+    for (String nm : addedSheets)
+      System.out.println("Added sheet: " + nm);
+    for (String nm : removedSheets)
+      System.out.println("Removed sheet: " + nm);
+
+    for (SheetChanges sc : sheetChanges.values()) {
+      System.out.println("Sheet " + sc.getName() + ":");
+      for (int row : sc.getAddedRows())
+        System.out.println("  Filled row " + (row+1));
+      for (int row : sc.getRemovedRows())
+        System.out.println("  Emptied row " + (row+1));
+      for (CellChange cc : sc.getAddedCells())
+        System.out.println("  Added " + cc);
+      for (CellChange cc : sc.getRemovedCells())
+        System.out.println("  Removed " + cc);
+      for (CellChange cc : sc.getChangedCells())
+        System.out.println("  Changed " + cc);
+    }
+    System.out.println("Blocks compared: " + numBlocks + 
+                       "; identical: " + numSkippedBlocks);
+    if (!isComplete())
+      System.out.println("The comparison is incomplete");
+  }  // end of print()
+
+}  // end of SheetDiff class
@@ -0,0 +1,463 @@
+// SheetMirror.java
+
+/* A local, column-by-column copy of a sheet's used range (from A1),
+   so repeated reads and aggregations (sums, averages, etc.) do not
+   cross the bridge to the office each time.
+
+   Numbers are stored in direct (off-heap) DoubleBuffers, one per
+   column, with NaN for cells that are not numbers. Strings are
+   stored as codes in direct IntBuffers, with one dictionary
+   (a StringColumn) per column. A large mirror therefore adds
+   little to the Java heap or to garbage collection.
+
+   The mirror is split into blocks of rows. A SheetChangeTracker marks
+   the blocks changed by each edit (every block if the mirror is not
+   given the sheet's document), and they are re-read, in bands of at
+   most Calc.MAX_CELLS_PER_READ cells, when the mirror is next used.
+   If the used range has changed size, the whole mirror is re-read. A
+   column's dictionary is compacted when re-reads have filled it with
+   strings that are no longer used.
+
+   Office calls the tracker while holding its own lock, so the mirror
+   never holds the lock its reads share with close() while calling
+   office; blocks are read first, and stored under the lock afterwards.
+
+   Typical use:
+     SheetMirror mirror = new SheetMirror(sheet, doc);
+     double total = mirror.compute(GeneralFunction.SUM, 2);  // column C
+     ...
+     mirror.close();
+*/
+
+package utils;
+
+import java.nio.*;
+import java.util.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+import com.sun.star.util.*;
+
+
+
+public class SheetMirror implements AutoCloseable
+{
+  public static final int DEFAULT_BLOCK_SIZE = 2000;    // rows
+
+  // a dictionary smaller than this is never compacted
+  private static final int MIN_COMPACT_SIZE = 1024;
+
+  private final XSpreadsheet sheet;
+  private final int blockSize;
+  private final SheetChangeTracker tracker;
+  private final Object refreshLock = new Object();
+                 // held while reading from office, so refreshes do not overlap
+
+  private Columns cols;      // guarded by this; null when closed
+  private long numBlockReads = 0;
+  private long numReloads = 0;
+
+
+
+  private static class Columns
+  // the mirrored values; numbers and string codes, one buffer per column
+  {
+    final int numCols, numRows;
+    final DoubleBuffer[] nums;       // NaN if not a number
+    final IntBuffer[] strCodes;      // StringColumn.EMPTY if not a string
+    final StringColumn[] dicts;
+    final int[] compactedSizes;      // dictionary sizes after the last compaction
+
+    Columns(int numCols, int numRows)
+    {
+      this.numCols = numCols;
+      this.numRows = numRows;
+      nums = new DoubleBuffer[numCols];
+      strCodes = new IntBuffer[numCols];
+      dicts = new StringColumn[numCols];
+      compactedSizes = new int[numCols];
+      for (int c = 0; c < numCols; c++) {
+        nums[c] = ByteBuffer.allocateDirect(numRows*8).order(
+                                     ByteOrder.nativeOrder()).asDoubleBuffer();
+        strCodes[c] = ByteBuffer.allocateDirect(numRows*4).order(
+                                     ByteOrder.nativeOrder()).asIntBuffer();
+        dicts[c] = new StringColumn(0);
+      }
+    }  // end of Columns()
+  }  // end of Columns class
+
+
+
+  public SheetMirror(XSpreadsheet sheet)
+  {  this(sheet, null, DEFAULT_BLOCK_SIZE);  }
+
+
+  public SheetMirror(XSpreadsheet sheet, XSpreadsheetDocument doc)
+  {  this(sheet, doc, DEFAULT_BLOCK_SIZE);  }
+
+
+  public SheetMirror(XSpreadsheet sheet, XSpreadsheetDocument doc, int blockSize)
+  // without doc, every modification makes the whole mirror stale
+  {
+    this.sheet = sheet;
+    this.blockSize = Math.min(Math.max(1, blockSize), DEFAULT_BLOCK_SIZE*50);
+    tracker = new SheetChangeTracker(sheet, doc, this.blockSize, null);
+    tracker.start();     // before reading, so no edit is missed
+    tracker.takeStaleBlocks(0);
+    cols = readAll( Calc.getAddress( Calc.findUsedRange(sheet)));
+    numReloads++;
+  }  // end of SheetMirror()
+
+
+
+  public void close()
+  {
+    tracker.close();      // not while holding a lock, since office calls the tracker
+    synchronized(this) {
+      cols = null;        // direct buffers are freed when they are garbage collected
+    }
+  }  // end of close()
+
+
+
+  // -------------------------- loading ------------------------------
+
+
+  private Columns readAll(CellRangeAddress used)
+  // read the whole used range into new columns
+  {
+    Columns cs = new Columns(used.EndColumn + 1, used.EndRow + 1);
+    int numBlocks = (cs.numRows + blockSize - 1)/blockSize;
+    for (int i = 0; i < numBlocks; i++)
+      storeBlock(cs, i, readBlock(cs, i));
+    for (int c = 0; c < cs.numCols; c++)
+      cs.compactedSizes[c] = cs.dicts[c].getDictionarySize();
+    tracker.updateFormulaBlocks();
+    return cs;
+  }  // end of readAll()
+
+
+
+  private Object[][] readBlock(Columns cs, int idx)
+  // read a block in bands of at most Calc.MAX_CELLS_PER_READ cells
+  {
+    int rowStart = idx*blockSize;
+    int rowEnd = Math.min(rowStart + blockSize, cs.numRows) - 1;
+    Object[][] vals = new Object[rowEnd - rowStart + 1][];
+    int bandSize = Calc.getBandSize(cs.numCols);
+    for (int r = rowStart; r <= rowEnd; r += bandSize) {
+      int bandEnd = Math.min(r + bandSize - 1, rowEnd);
+      Object[][] band = Calc.getCellRangeArray( 
+                    Calc.getCellRange(sheet, 0, r, cs.numCols-1, bandEnd));
+      System.arraycopy(band, 0, vals, r - rowStart, band.length);
+    }
+    synchronized(this) {
+      numBlockReads++;
+    }
+    return vals;
+  }  // end of readBlock()
+
+
+
+  private void storeBlock(Columns cs, int idx, Object[][] vals)
+  // called with this object's lock held, unless the columns are new
+  {
+    int rowStart = idx*blockSize;
+    for (int r = 0; r < vals.length; r++) {
+      int row = rowStart + r;
+      for (int c = 0; c < cs.numCols; c++) {
+        Object o = vals[r][c];
+        if (o instanceof Double) {
+          cs.nums[c].put(row, (Double) o);
+          cs.strCodes[c].put(row, StringColumn.EMPTY);
+        }
+        else {
+          cs.nums[c].put(row, Double.NaN);
+          cs.strCodes[c].put(row, cs.dicts[c].encode((o == null) ? null : o.toString()));
+        }
+      }
+    }
+  }  // end of storeBlock()
+
+
+
+  private void refresh()
+  /* re-read the stale blocks, or everything if the used range has
+     changed size. The office calls are made without holding this
+     object's lock, which is only taken to store the results */
+  {
+    synchronized(refreshLock) {
+      Columns cs;
+      synchronized(this) {
+        cs = cols;
+      }
+      if ((cs == null) || !tracker.hasStaleBlocks())
+        return;
+      int numBlocks = (cs.numRows + blockSize - 1)/blockSize;
+      BitSet stale = tracker.takeStaleBlocks(numBlocks);
+
+      CellRangeAddress used = Calc.getAddress( Calc.findUsedRange(sheet));
+      if ((used.EndColumn+1 != cs.numCols) || (used.EndRow+1 != cs.numRows)) {
+        Columns newCols = readAll(used);
+        synchronized(this) {
+          if (cols != null) {     // not closed
+            cols = newCols;
+            numReloads++;
+          }
+        }
+        return;
+      }
+
+      int[] idxs = new int[stale.cardinality()];
+      Object[][][] blocks = new Object[idxs.length][][];
+      int n = 0;
+      for (int i = stale.nextSetBit(0); i >= 0; i = stale.nextSetBit(i+1)) {
+        idxs[n] = i;
+        blocks[n++] = readBlock(cs, i);
+      }
+      tracker.updateFormulaBlocks();
+
+      synchronized(this) {
+        if (cols != cs)
+          return;       // closed
+        for (int i = 0; i < idxs.length; i++)
+          storeBlock(cs, idxs[i], blocks[i]);
+        for (int c = 0; c < cs.numCols; c++)
+          if (cs.dicts[c].getDictionarySize() > 
+                          Math.max(MIN_COMPACT_SIZE, 2*cs.compactedSizes[c]))
+            compact(cs, c);
+      }
+    }
+  }  // end of refresh()
+
+
+
+  private static void compact(Columns cs, int c)
+  /* rebuild the column's dictionary with only the strings still in 
+     the column; re-read blocks add their strings to the dictionary,
+     but the strings they replaced are never removed */
+  {
+    StringColumn oldDict = cs.dicts[c];
+    StringColumn newDict = new StringColumn(0);
+    int[] newCodes = new int[oldDict.getDictionarySize()];
+    Arrays.fill(newCodes, StringColumn.EMPTY);
+    IntBuffer codes = cs.strCodes[c];
+    for (int r = 0; r < cs.numRows; r++) {
+      int code = codes.get(r);
+      if (code == StringColumn.EMPTY)
+        continue;
+      if (newCodes[code] == StringColumn.EMPTY)
+        newCodes[code] = newDict.encode( oldDict.decode(code));
+      codes.put(r, newCodes[code]);
+    }
+    cs.dicts[c] = newDict;
+    cs.compactedSizes[c] = newDict.getDictionarySize();
+  }  // end of compact()
+
+
+
+  public void invalidate()
+  // mark the whole mirror as stale
+  {  tracker.invalidateAll();  }
+
+
+
+  // --------------------------- reads -------------------------------
+
+
+  public int getColumnCount()
+  {  refresh();  
+     synchronized(this) {
+       return (cols == null) ? 0 : cols.numCols;  
+     }
+  }
+
+  public int getRowCount()
+  {  refresh();  
+     synchronized(this) {
+       return (cols == null) ? 0 : cols.numRows;  
+     }
+  }
+
+
+  public double getDouble(int column, int row)
+  // NaN if the cell is not a number, or is outside the mirror
+  {
+    refresh();
+    synchronized(this) {
+      if (!isInside(column, row))
+        return Double.NaN;
+      return cols.nums[column].get(row);
+    }
+  }
+
+
+  public String getString(int column, int row)
+  // null if the cell is not text, or is outside the mirror
+  {
+    refresh();
+    synchronized(this) {
+      if (!isInside(column, row))
+        return null;
+      return cols.dicts[column].decode( cols.strCodes[column].get(row));
+    }
+  }
+
+
+  public Object getValue(int column, int row)
+  // a Double or String, as returned by getDataArray() ("" for empty)
+  {
+    refresh();
+    synchronized(this) {
+      if (!isInside(column, row))
+        return "";
+      double d = cols.nums[column].get(row);
+      if (!Double.isNaN(d))
+        return d;
+      String s = cols.dicts[column].decode( cols.strCodes[column].get(row));
+      return (s == null) ? "" : s;
+    }
+  }
+
+
+  public double[] getDoubles(int column, int rowStart, int rowEnd)
+  // a copy of part of a column; non-numbers are NaN
+  {
+    refresh();
+    synchronized(this) {
+      if (cols == null)
+        return new double[0];
+      rowStart = Math.max(0, rowStart);
+      rowEnd = Math.min(cols.numRows-1, rowEnd);
+      if ((column < 0) || (column >= cols.numCols) || (rowStart > rowEnd))
+        return new double[0];
+      double[] vals = new double[rowEnd - rowStart + 1];
+      DoubleBuffer buf = cols.nums[column].duplicate();
+      buf.position(rowStart);
+      buf.get(vals);
+      return vals;
+    }
+  }  // end of getDoubles()
+
+
+  public StringColumn getStringColumn(int column)
+  // a copy of a column's strings (non-strings are EMPTY)
+  {
+    refresh();
+    synchronized(this) {
+      int numRows = (cols == null) ? 0 : cols.numRows;
+      StringColumn sc = new StringColumn(numRows);
+      if ((cols == null) || (column < 0) || (column >= cols.numCols))
+        return sc;
+      for (int r = 0; r < numRows; r++)
+        sc.add( cols.dicts[column].decode( cols.strCodes[column].get(r)));
+      return sc;
+    }
+  }  // end of getStringColumn()
+
+
+  private boolean isInside(int column, int row)
+  {  return (cols != null) && (column >= 0) && (column < cols.numCols) && 
+            (row >= 0) && (row < cols.numRows);  }
+
+
+
+  // ------------------------ aggregation -----------------------------
+
+
+  public double compute(GeneralFunction fn, int column)
+  {  return compute(fn, column, 0, Integer.MAX_VALUE);  }
+
+
+  public double compute(GeneralFunction fn, int column, int rowStart, int rowEnd)
+  /* like Calc.computeFunction() applied to (part of) a column, but
+     calculated locally; non-numeric cells are ignored, except by COUNT */
+  {
+    refresh();
+    synchronized(this) {
+      if ((cols == null) || (column < 0) || (column >= cols.numCols))
+        return 0;
+      return compute(fn, cols.nums[column], cols.strCodes[column],
+                     Math.max(0, rowStart), Math.min(cols.numRows-1, rowEnd));
+    }
+  }  // end of compute()
+
+
+
+  private static double compute(GeneralFunction fn, DoubleBuffer buf, 
+                                IntBuffer codes, int rowStart, int rowEnd)
+  {
+
+    long n = 0, count = 0;
+    double sum = 0, prod = 1;
+    double mean = 0, m2 = 0;     // for Welford's variance
+    double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    for (int r = rowStart; r <= rowEnd; r++) {
+      double d = buf.get(r);
+      if (Double.isNaN(d)) {
+        if (codes.get(r) != StringColumn.EMPTY)
+          count++;
+        continue;
+      }
+      n++;
+      sum += d;
+      prod *= d;
+      double delta = d - mean;
+      mean += delta/n;
+      m2 += delta*(d - mean);
+      if (d < min)
+        min = d;
+      if (d > max)
+        max = d;
+    }
+    count += n;
+
+    switch (fn.getValue()) {
+      case GeneralFunction.SUM_value:  return sum;
+      case GeneralFunction.COUNT_value:  return count;
+      case GeneralFunction.COUNTNUMS_value:  return n;
+      case GeneralFunction.AVERAGE_value:  return (n == 0) ? 0 : sum/n;
+      case GeneralFunction.MAX_value:  return (n == 0) ? 0 : max;
+      case GeneralFunction.MIN_value:  return (n == 0) ? 0 : min;
+      case GeneralFunction.PRODUCT_value:  return (n == 0) ? 0 : prod;
+      case GeneralFunction.VAR_value:
+        return (n < 2) ? 0 : m2/(n-1);
+      case GeneralFunction.VARP_value:
+        return (n == 0) ? 0 : m2/n;
+      case GeneralFunction.STDEV_value:
+        return (n < 2) ? 0 : Math.sqrt(m2/(n-1));
+      case GeneralFunction.STDEVP_value:
+        return (n == 0) ? 0 : Math.sqrt(m2/n);
+      default:
+        System.out.println("Unsupported function: " + fn.getValue());
+        return 0;
+    }
+  }  // end of compute()
+
+
+
+  // ------------------------- stats ---------------------------------
+
+
+  public synchronized long getBlockReadCount()
+  {  return numBlockReads;  }
+
+  public synchronized long getReloadCount()
+  {  return numReloads;  }
+
+
+  public void printStats()
+  {
+    String dims;
+    long nReads, nReloads;
+    synchronized(this) {
+      dims = (cols == null) ? "closed" : (cols.numCols + " x " + cols.numRows);
+      nReads = numBlockReads;
+      nReloads = numReloads;
+    }
+    System.out.println("Sheet mirror: " + dims + 
+                       "; block reads: " + nReads + 
+                       "; full reloads: " + nReloads);
+  }
+
+}  // end of SheetMirror class
@@ -0,0 +1,227 @@
+// SheetReader.java
+
+/* Streams the rows of a sheet's used range (or of a given range),
+   fetching blocks of rows with one getDataArray() call each, so only
+   one or two blocks are held in memory whatever the size of the sheet.
+   The next block can be fetched by a background thread while the 
+   current one is being processed.
+
+   Typical use:
+     SheetReader reader = new SheetReader(sheet, 5000, true);
+     try {
+       while (reader.hasNext()) {
+         Object[] row = reader.next();
+         ...
+       }
+     }
+     finally {
+       reader.close();
+     }
+
+   or process the rows with reader.stream().
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SheetReader implements Iterator<Object[]>, AutoCloseable
+{
+  public static final int DEFAULT_BLOCK_SIZE = 5000;    // rows
+
+  private final XSpreadsheet sheet;
+  private final int startCol, endCol;
+  private final int startRow, endRow;
+  private final int blockSize;
+
+  private Object[][] block = null;     // the current block of rows
+  private int blockStart;              // sheet row of block[0]
+  private int blockIdx = 0;            // next row to return from the block
+  private int nextFetchRow;            // first sheet row of the next block
+
+  private ExecutorService prefetcher = null;
+  private Future<Object[][]> nextBlock = null;
+
+
+
+  public SheetReader(XSpreadsheet sheet)
+  {  this(sheet, DEFAULT_BLOCK_SIZE, false);  }
+
+
+  public SheetReader(XSpreadsheet sheet, int blockSize, boolean isPrefetching)
+  // read the sheet's used range
+  {  this(sheet, Calc.getAddress(Calc.findUsedRange(sheet)), blockSize, isPrefetching);  }
+
+
+  public SheetReader(XSpreadsheet sheet, CellRangeAddress addr, 
+                                    int blockSize, boolean isPrefetching)
+  {
+    this.sheet = sheet;
+    startCol = addr.StartColumn;
+    endCol = addr.EndColumn;
+    startRow = addr.StartRow;
+    endRow = addr.EndRow;
+    this.blockSize = Math.max(1, blockSize);
+    nextFetchRow = startRow;
+    blockStart = startRow;
+
+    if (isPrefetching) {
+      prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                     public Thread newThread(Runnable r)
+                     { Thread t = new Thread(r, "SheetReader prefetch");
+                       t.setDaemon(true);
+                       return t;
+                     }
+                   });
+      startPrefetch();
+    }
+  }  // end of SheetReader()
+
+
+
+  public int getStartColumn()
+  {  return startCol;  }
+
+  public int getStartRow()
+  {  return startRow;  }
+
+  public int getColumnCount()
+  {  return endCol - startCol + 1;  }
+
+  public int getRowCount()
+  {  return endRow - startRow + 1;  }
+
+
+  public int getRowIndex()
+  // the sheet row of the row last returned by next()
+  {  return blockStart + blockIdx - 1;  }
+
+
+
+  public boolean hasNext()
+  {  return ((block != null) && (blockIdx < block.length)) ||
+            (nextFetchRow <= endRow);
+  }
+
+
+  public Object[] next()
+  {
+    if ((block == null) || (blockIdx == block.length)) {
+      if (nextFetchRow > endRow)
+        throw new NoSuchElementException();
+      blockStart = nextFetchRow;
+      block = takeBlock();
+      blockIdx = 0;
+    }
+    return block[blockIdx++];
+  }  // end of next()
+
+
+
+  public Object[][] nextBlock()
+  /* return the rest of the current block, or the next block;
+     null when all the rows have been read */
+  {
+    if ((block != null) && (blockIdx < block.length)) {
+      Object[][] rest = Arrays.copyOfRange(block, blockIdx, block.length);
+      blockStart += blockIdx;    // rest begins at this sheet row
+      block = rest;
+      blockIdx = rest.length;
+      return rest;
+    }
+    if (nextFetchRow > endRow)
+      return null;
+    blockStart = nextFetchRow;
+    block = takeBlock();
+    blockIdx = block.length;
+    return block;
+  }  // end of nextBlock()
+
+
+
+  public int getBlockStart()
+  // the sheet row of the first row of the current block
+  {  return blockStart;  }
+
+
+
+  private Object[][] takeBlock()
+  // get the block starting at nextFetchRow, from the prefetcher if there is one
+  {
+    Object[][] data;
+    if (nextBlock != null) {
+      try {
+        data = nextBlock.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while reading the sheet");
+      }
+      catch (ExecutionException e) {
+        throw new IllegalStateException("Could not read the sheet: " + e.getCause());
+      }
+    }
+    else
+      data = fetchBlock(nextFetchRow);
+
+    nextFetchRow += data.length;
+    if (prefetcher != null)
+      startPrefetch();
+    return data;
+  }  // end of takeBlock()
+
+
+
+  private void startPrefetch()
+  {
+    if (nextFetchRow > endRow) {
+      nextBlock = null;
+      return;
+    }
+    final int rowStart = nextFetchRow;
+    nextBlock = prefetcher.submit(new Callable<Object[][]>() {
+      public Object[][] call()
+      {  return fetchBlock(rowStart);  }
+    });
+  }  // end of startPrefetch()
+
+
+
+  private Object[][] fetchBlock(int rowStart)
+  {
+    int rowEnd = Math.min(rowStart + blockSize - 1, endRow);
+    XCellRange range = Calc.getCellRange(sheet, startCol, rowStart, endCol, rowEnd);
+    return Calc.getCellRangeArray(range);
+  }  // end of fetchBlock()
+
+
+
+  public Spliterator<Object[]> spliterator()
+  {  return Spliterators.spliterator(this, getRowCount(), 
+                   Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL);  }
+
+
+  public Stream<Object[]> stream()
+  // a sequential stream of the rows
+  {  return StreamSupport.stream(spliterator(), false);  }
+
+
+
+  public void close()
+  // stop the prefetch thread
+  {
+    if (prefetcher != null) {
+      prefetcher.shutdownNow();
+      prefetcher = null;
+    }
+    nextBlock = null;
+  }  // end of close()
+
+}  // end of SheetReader class
@@ -0,0 +1,191 @@
+// SheetSplitter.java
+
+/* Processes the parts of a workbook in parallel, using the offices
+   of an OfficePool. Calls into one office are serialized by its
+   global lock, so Java threads working on the sheets of a document
+   in a single office do not run in parallel; with a pool, each office
+   works on its own parts.
+
+   Every office loads its own read-only copy of the workbook (once,
+   when it is first given a part). A part is either a sheet's used
+   range (splitBySheets()), or a band of rows from a sheet's used
+   range (splitByRows()). The SheetTask is run on each part, and the
+   results are returned in part order, or merged with a function.
+
+   Typical use:
+     OfficePool pool = new OfficePool(4, "/tmp/officePool");
+     SheetSplitter splitter = new SheetSplitter(pool, "big.ods");
+     List<double[]> sums = splitter.run(splitter.splitBySheets(), 
+       new SheetTask<double[]>() {
+         public double[] process(XSpreadsheet sheet, CellRangeAddress part, 
+                                                   OfficeConnection conn)
+         {  ...  }
+       });
+     splitter.close();
+*/
+
+package utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BinaryOperator;
+
+import com.sun.star.lang.XComponent;
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SheetSplitter implements AutoCloseable
+{
+  private final OfficePool pool;
+
+  // each office's copy of the workbook
+  private final PerOfficeDoc<XSpreadsheetDocument> docs;
+
+
+
+  public SheetSplitter(OfficePool pool, String fnm)
+  {
+    this.pool = pool;
+    docs = new PerOfficeDoc<XSpreadsheetDocument>(fnm, true,
+             new DocOpener<XSpreadsheetDocument>() {
+               public XSpreadsheetDocument open(XComponent doc, OfficeConnection conn)
+               {  return Calc.getSSDoc(doc);  }
+             });
+  }  // end of SheetSplitter()
+
+
+
+  // --------------------------- splitting ---------------------------------
+
+
+  public List<CellRangeAddress> splitBySheets()
+  // one part for the used range of each sheet
+  {
+    return pool.run(new OfficeJob<List<CellRangeAddress>>() {
+      public List<CellRangeAddress> run(OfficeConnection conn)
+      {
+        XSpreadsheetDocument doc = getDoc(conn);
+        ArrayList<CellRangeAddress> parts = new ArrayList<CellRangeAddress>();
+        if (doc == null)
+          return parts;
+        int numSheets = Calc.getSheetNames(doc).length;
+        for (int i = 0; i < numSheets; i++)
+          parts.add( Calc.getAddress( Calc.findUsedRange( Calc.getSheet(doc, i))));
+        return parts;
+      }
+    }, true);
+  }  // end of splitBySheets()
+
+
+
+  public List<CellRangeAddress> splitByRows(final String sheetName, final int numBands)
+  // split the used range of the sheet into numBands bands of rows
+  {
+    return pool.run(new OfficeJob<List<CellRangeAddress>>() {
+      public List<CellRangeAddress> run(OfficeConnection conn)
+      {
+        ArrayList<CellRangeAddress> parts = new ArrayList<CellRangeAddress>();
+        XSpreadsheetDocument doc = getDoc(conn);
+        XSpreadsheet sheet = (doc == null) ? null : Calc.getSheet(doc, sheetName);
+        if (sheet == null)
+          return parts;
+        CellRangeAddress used = Calc.getAddress( Calc.findUsedRange(sheet));
+        int numRows = used.EndRow - used.StartRow + 1;
+        int bandSize = (numRows + Math.max(1, numBands) - 1)/Math.max(1, numBands);
+        for (int row = used.StartRow; row <= used.EndRow; row += bandSize) {
+          CellRangeAddress band = new CellRangeAddress(used.Sheet, 
+                     used.StartColumn, row, 
+                     used.EndColumn, Math.min(row + bandSize - 1, used.EndRow));
+          parts.add(band);
+        }
+        return parts;
+      }
+    }, true);
+  }  // end of splitByRows()
+
+
+
+  // ---------------------------- running ----------------------------------
+
+
+  public <T> List<T> run(List<CellRangeAddress> parts, final SheetTask<T> task)
+  /* run the task on every part, with as many parts being processed at once
+     as there are offices; a part's result is null if its task failed */
+  {
+    ArrayList<T> results = new ArrayList<T>();
+    if ((parts == null) || parts.isEmpty())
+      return results;
+
+    ExecutorService exec = Executors.newFixedThreadPool( Math.max(1, pool.size()));
+    ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+    try {
+      for (final CellRangeAddress part : parts) {
+        futures.add( exec.submit(new Callable<T>() {
+          public T call()
+          {  return pool.run(makeJob(part, task), true);  }
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add( futures.get(i).get());
+        }
+        catch (ExecutionException e) {
+          System.out.println("Part " + i + " failed: " + e.getCause());
+          results.add(null);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      exec.shutdownNow();
+    }
+    return results;
+  }  // end of run()
+
+
+
+  public <T> T run(List<CellRangeAddress> parts, SheetTask<T> task, BinaryOperator<T> merger)
+  // merge the parts' results in part order, skipping failed parts
+  {
+    T total = null;
+    for (T res : run(parts, task)) {
+      if (res == null)
+        continue;
+      total = (total == null) ? res : merger.apply(total, res);
+    }
+    return total;
+  }  // end of run()
+
+
+
+  private <T> OfficeJob<T> makeJob(final CellRangeAddress part, final SheetTask<T> task)
+  {
+    return new OfficeJob<T>() {
+      public T run(OfficeConnection conn) throws java.lang.Exception
+      {
+        XSpreadsheetDocument doc = getDoc(conn);
+        if (doc == null)
+          return null;
+        XSpreadsheet sheet = Calc.getSheet(doc, part.Sheet);
+        return task.process(sheet, part, conn);
+      }
+    };
+  }  // end of makeJob()
+
+
+
+  private XSpreadsheetDocument getDoc(OfficeConnection conn)
+  // this office's read-only copy of the workbook (see PerOfficeDoc)
+  {  return docs.get(conn);  }
+
+
+
+  public void close()
+  // close the workbook copies; the pool is left running
+  {  docs.close();  }
+
+}  // end of SheetSplitter class
@@ -0,0 +1,19 @@
+// SheetTask.java
+
+/* A piece of work done by SheetSplitter on one part of a workbook:
+   a whole sheet's used range, or a band of its rows. The sheet
+   belongs to a read-only copy of the workbook loaded in the office
+   of conn, which is bound to the current thread while the task runs.
+*/
+
+package utils;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+public interface SheetTask<T>
+{
+  T process(XSpreadsheet sheet, CellRangeAddress part, OfficeConnection conn) 
+                                                   throws java.lang.Exception;
+}
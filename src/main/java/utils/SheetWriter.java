@@ -0,0 +1,312 @@
+// SheetWriter.java
+
+/* Collects cell writes for a sheet, and sends them to office as
+   rectangular blocks through XCellRangeData.setDataArray(), with
+   any formulae written by XCellRangeFormula.setFormulaArray().
+   Text is stored as it is, without passing through the formula
+   parser (so "1-2" stays text rather than becoming a date).
+   Filling a sheet with set() costs a few block writes, instead of
+   two or more remote calls per cell as with Calc.setVal().
+
+   Buffered cells are flushed when there are maxCells of them, when
+   maxDelay ms have passed since the oldest one was buffered (checked
+   on each write), and on flush()/close().
+
+   Cells in the same row with adjacent columns are joined into runs,
+   and runs with the same columns in consecutive rows are joined into
+   rectangles.
+
+   Values may be Numbers, Booleans (written as 1/0), Strings (a String
+   starting with "=" is a formula), or null (clears the cell).
+
+   Typical use:
+     try (SheetWriter writer = new SheetWriter(sheet)) {
+       for (...)
+         writer.set(col, row, val);
+     }
+*/
+
+package utils;
+
+import java.util.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SheetWriter implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CELLS = 50000;
+  public static final long DEFAULT_MAX_DELAY = 2000;   // ms
+
+  private final XSpreadsheet sheet;
+  private final int maxCells;
+  private final long maxDelay;
+
+  // buffered cells, ordered by row then column
+  private final TreeMap<Long, Object> cells = new TreeMap<Long, Object>();
+  private long firstBufferTime = 0;
+
+  private int numBlocks = 0;       // number of blocks sent to office
+  private long numCells = 0;       // number of cells sent to office
+
+
+
+  public SheetWriter(XSpreadsheet sheet)
+  {  this(sheet, DEFAULT_MAX_CELLS, DEFAULT_MAX_DELAY);  }
+
+
+  public SheetWriter(XSpreadsheet sheet, int maxCells, long maxDelay)
+  {
+    this.sheet = sheet;
+    this.maxCells = Math.max(1, maxCells);
+    this.maxDelay = maxDelay;
+  }  // end of SheetWriter()
+
+
+
+  public void set(int column, int row, Object value)
+  // buffer one cell
+  {
+    if (cells.isEmpty())
+      firstBufferTime = System.currentTimeMillis();
+    cells.put( toKey(column, row), value);
+    if ((cells.size() >= maxCells) ||
+        (System.currentTimeMillis() - firstBufferTime >= maxDelay))
+      flush();
+  }  // end of set()
+
+
+  public void set(String cellName, Object value)
+  { java.awt.Point pos = Calc.getCellPosition(cellName);
+    set(pos.x, pos.y, value);
+  }
+
+
+
+  public void setArray(int colStart, int rowStart, Object[][] values)
+  /* a rectangle is written directly as one block (after any buffered
+     cells, so later writes still win) */
+  {
+    flush();
+    if ((values.length == 0) || (values[0].length == 0))
+      return;
+    XCellRange range = Calc.getCellRange(sheet, colStart, rowStart,
+                             colStart + values[0].length-1, rowStart + values.length-1);
+    writeBlock(range, values);
+    numBlocks++;
+    numCells += (long) values.length * values[0].length;
+  }  // end of setArray()
+
+
+
+  public void setCol(int colStart, int rowStart, Object[] values)
+  {
+    Object[][] vals = new Object[values.length][1];
+    for (int i = 0; i < values.length; i++)
+      vals[i][0] = values[i];
+    setArray(colStart, rowStart, vals);
+  }  // end of setCol()
+
+
+  public void setRow(int colStart, int rowStart, Object[] values)
+  {  setArray(colStart, rowStart, new Object[][]{ values });  }
+
+
+
+  public int getBufferedCount()
+  {  return cells.size();  }
+
+  public int getBlockCount()
+  {  return numBlocks;  }
+
+  public long getCellCount()
+  {  return numCells;  }
+
+
+
+  public void flush()
+  // join the buffered cells into rectangles, and write them
+  {
+    if (cells.isEmpty())
+      return;
+    for (Rect rect : joinRects(cells)) {
+      Object[][] vals = rect.rows.toArray(new Object[rect.rows.size()][]);
+      XCellRange range = Calc.getCellRange(sheet, rect.col, rect.row,
+                               rect.col + vals[0].length-1, rect.row + vals.length-1);
+      writeBlock(range, vals);
+      numBlocks++;
+    }
+    numCells += cells.size();
+    cells.clear();
+  }  // end of flush()
+
+
+
+  private static ArrayList<Rect> joinRects(TreeMap<Long, Object> cells)
+  /* join cells in the same row with adjacent columns into runs, and runs 
+     with the same columns in consecutive rows into rectangles */
+  {
+    // rectangles that may be extended by the next row; keyed by column span
+    HashMap<Long, Rect> openRects = new HashMap<Long, Rect>();
+    ArrayList<Rect> rects = new ArrayList<Rect>();
+
+    int currRow = -1;
+    HashMap<Long, Rect> rowRects = new HashMap<Long, Rect>();
+    Iterator<Map.Entry<Long, Object>> it = cells.entrySet().iterator();
+    Map.Entry<Long, Object> e = it.hasNext() ? it.next() : null;
+    while (e != null) {
+      int row = (int)(e.getKey() >>> 32);
+      if (row != currRow) {   // start a new row
+        openRects = (row == currRow+1) ? rowRects : new HashMap<Long, Rect>();
+        rowRects = new HashMap<Long, Rect>();
+        currRow = row;
+      }
+
+      // collect a run of adjacent columns in this row
+      int startCol = (int)(long) e.getKey();
+      ArrayList<Object> run = new ArrayList<Object>();
+      run.add(e.getValue());
+      int endCol = startCol;
+      e = it.hasNext() ? it.next() : null;
+      while ((e != null) && ((int)(e.getKey() >>> 32) == row) && 
+             ((int)(long) e.getKey() == endCol+1)) {
+        run.add(e.getValue());
+        endCol++;
+        e = it.hasNext() ? it.next() : null;
+      }
+
+      // extend the rectangle above with the same columns, or start a new one
+      long span = toKey(startCol, endCol);
+      Rect rect = openRects.get(span);
+      if (rect == null) {
+        rect = new Rect(startCol, row);
+        rects.add(rect);
+      }
+      rect.rows.add( run.toArray() );
+      rowRects.put(span, rect);
+    }
+    return rects;
+  }  // end of joinRects()
+
+
+
+  public void close()
+  {  flush();  }
+
+
+
+  private static class Rect
+  {
+    int col, row;     // top-left
+    ArrayList<Object[]> rows = new ArrayList<Object[]>();
+
+    Rect(int col, int row)
+    {  this.col = col;  this.row = row;  }
+  }  // end of Rect class
+
+
+
+  private static long toKey(int column, int row)
+  {  return ((long) row << 32) | (column & 0xFFFFFFFFL);  }
+
+
+
+  // ---------------------- block writing ----------------------------
+
+
+  public static void writeBlock(XCellRange cellRange, Object[][] values)
+  /* write the values to the range using setDataArray(), and any formulae
+     with setFormulaArray(). Big blocks are written in bands of rows,
+     so each call is a reasonable size. */
+  {
+    int numRows = values.length;
+    int numCols = values[0].length;
+    int bandSize = Calc.getBandSize(numCols);
+    if (numRows <= bandSize) {
+      writeBand(cellRange, values);
+      return;
+    }
+    for (int rowStart = 0; rowStart < numRows; rowStart += bandSize) {
+      int n = Math.min(bandSize, numRows - rowStart);
+      XCellRange band = Calc.getCellRange(cellRange, 0, rowStart, numCols-1, rowStart+n-1);
+      writeBand(band, Arrays.copyOfRange(values, rowStart, rowStart+n));
+    }
+  }  // end of writeBlock()
+
+
+
+  private static void writeBand(XCellRange cellRange, Object[][] values)
+  /* only formulae go through setFormulaArray(), so other strings
+     (e.g. "1-2") are stored as text, not parsed as dates or numbers */
+  {
+    TreeMap<Long, Object> formulas = new TreeMap<Long, Object>();
+    Object[][] data = new Object[values.length][];
+    for (int r = 0; r < values.length; r++) {
+      data[r] = new Object[values[r].length];
+      for (int c = 0; c < values[r].length; c++) {
+        Object o = values[r][c];
+        if (isFormula(o)) {
+          formulas.put( toKey(c, r), o);
+          data[r][c] = "";
+        }
+        else
+          data[r][c] = toData(o);
+      }
+    }
+    if (formulas.size() < values.length * values[0].length)
+      Lo.qi(XCellRangeData.class, cellRange).setDataArray(data);
+
+    // write the formulae as rectangles, using positions relative to the band
+    for (Rect rect : joinRects(formulas)) {
+      String[][] fs = new String[rect.rows.size()][];
+      for (int r = 0; r < fs.length; r++) {
+        Object[] row = rect.rows.get(r);
+        fs[r] = new String[row.length];
+        for (int c = 0; c < row.length; c++)
+          fs[r][c] = (String) row[c];
+      }
+      XCellRange fRange = Calc.getCellRange(cellRange, rect.col, rect.row,
+                               rect.col + fs[0].length-1, rect.row + fs.length-1);
+      Lo.qi(XCellRangeFormula.class, fRange).setFormulaArray(fs);
+    }
+  }  // end of writeBand()
+
+
+
+  public static void writeLiterals(XCellRange cellRange, Object[][] values)
+  // every String is stored as text, even if it starts with "="
+  {
+    Object[][] data = new Object[values.length][];
+    for (int r = 0; r < values.length; r++) {
+      data[r] = new Object[values[r].length];
+      for (int c = 0; c < values[r].length; c++)
+        data[r][c] = toData(values[r][c]);
+    }
+    Lo.qi(XCellRangeData.class, cellRange).setDataArray(data);
+  }  // end of writeLiterals()
+
+
+
+  private static boolean isFormula(Object o)
+  {  return (o instanceof String) && ((String) o).startsWith("=");  }
+
+
+
+  private static Object toData(Object o)
+  // setDataArray() only accepts doubles and strings
+  {
+    if (o instanceof Double)
+      return o;
+    else if (o instanceof Number)
+      return ((Number) o).doubleValue();
+    else if (o instanceof Boolean)
+      return ((Boolean) o) ? 1.0 : 0.0;
+    else if (o == null)
+      return "";
+    else
+      return o.toString();
+  }  // end of toData()
+
+}  // end of SheetWriter class
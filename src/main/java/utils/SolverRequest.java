@@ -0,0 +1,165 @@
+// SolverRequest.java
+
+/* A goal seek or solver (optimization) job for a SolverRunner.
+   Cells are named as in CalcModel ("B2", "Sheet1.B2", or a named
+   range). If inputs are given, they are written to the model's input
+   cells before the job is run. A goal seek succeeds if its result is
+   within the tolerance of the target; by default, within a millionth
+   of the target's size.
+
+   Typical use:
+     SolverRequest req = SolverRequest.solve("Profit", 
+                               new String[] {"B2", "B3"}, true);
+     req.addConstraint("B2", ">=", 0);
+     req.addConstraint("C5", "<=", 100);
+*/
+
+package utils;
+
+import java.util.*;
+
+
+
+public class SolverRequest
+{
+  public static final String DEFAULT_SOLVER = "com.sun.star.comp.Calc.CoinMPSolver";
+
+  // a goal seek succeeds if the result is this close to the target
+  public static final double DEFAULT_TOLERANCE = 1e-6;    // relative
+
+  private final boolean isGoalSeek;
+  private final String objectiveCell;     // formula cell for a goal seek
+  private final String[] variableCells;
+  private final double target;            // for a goal seek
+  private final boolean isMaximize;
+
+  private double[] inputs = null;
+  private String solverName = DEFAULT_SOLVER;
+  private double tolerance = DEFAULT_TOLERANCE;
+  private boolean isRelativeTolerance = true;
+  private final ArrayList<String> constraintCells = new ArrayList<String>();
+  private final ArrayList<String> constraintOps = new ArrayList<String>();
+  private final ArrayList<Double> constraintVals = new ArrayList<Double>();
+  private final LinkedHashMap<String, Object> solverProps = new LinkedHashMap<String, Object>();
+
+
+
+  private SolverRequest(boolean isGoalSeek, String objectiveCell, String[] variableCells,
+                                               double target, boolean isMaximize)
+  {
+    this.isGoalSeek = isGoalSeek;
+    this.objectiveCell = objectiveCell;
+    this.variableCells = variableCells.clone();
+    this.target = target;
+    this.isMaximize = isMaximize;
+  }
+
+
+  public static SolverRequest goalSeek(String formulaCell, String variableCell, double target)
+  // find the value of variableCell which makes formulaCell equal target
+  {  return new SolverRequest(true, formulaCell, new String[]{variableCell}, target, false);  }
+
+
+  public static SolverRequest solve(String objectiveCell, String[] variableCells, 
+                                                              boolean isMaximize)
+  {  return new SolverRequest(false, objectiveCell, variableCells, 0, isMaximize);  }
+
+
+
+  public SolverRequest setInputs(double[] inputs)
+  {  this.inputs = (inputs == null) ? null : inputs.clone();
+     return this;
+  }
+
+  public SolverRequest setSolver(String serviceName)
+  // e.g. "com.sun.star.comp.Calc.NLPSolver.DEPSSolverImpl"; see Calc.listSolvers()
+  {  solverName = serviceName;
+     return this;
+  }
+
+  public SolverRequest setTolerance(double tolerance, boolean isRelative)
+  /* how close a goal seek's result must be to the target; a relative
+     tolerance is multiplied by the size of the target (unless it is 0) */
+  {  this.tolerance = Math.abs(tolerance);
+     isRelativeTolerance = isRelative;
+     return this;
+  }
+
+  public SolverRequest setSolverProperty(String name, Object value)
+  // e.g. "NonNegative", true
+  {  solverProps.put(name, value);
+     return this;
+  }
+
+  public SolverRequest addConstraint(String cellName, String op, double value)
+  // op is "=", "<=", or ">="
+  {
+    constraintCells.add(cellName);
+    constraintOps.add(op);
+    constraintVals.add(value);
+    return this;
+  }  // end of addConstraint()
+
+
+
+  public boolean isGoalSeek()
+  {  return isGoalSeek;  }
+
+  public String getObjectiveCell()
+  {  return objectiveCell;  }
+
+  public String[] getVariableCells()
+  {  return variableCells.clone();  }
+
+  public double getTarget()
+  {  return target;  }
+
+  public boolean isMaximize()
+  {  return isMaximize;  }
+
+  public double getTolerance()
+  {  return tolerance;  }
+
+  public boolean isRelativeTolerance()
+  {  return isRelativeTolerance;  }
+
+  public double getAllowedDivergence()
+  // the largest difference from the target that a goal seek accepts
+  {
+    if (isRelativeTolerance && (target != 0))
+      return tolerance*Math.abs(target);
+    return tolerance;
+  }
+
+  public double[] getInputs()
+  {  return inputs;  }
+
+  public String getSolverName()
+  {  return solverName;  }
+
+  public Map<String, Object> getSolverProperties()
+  {  return solverProps;  }
+
+  public int getConstraintCount()
+  {  return constraintCells.size();  }
+
+  public String getConstraintCell(int i)
+  {  return constraintCells.get(i);  }
+
+  public String getConstraintOp(int i)
+  {  return constraintOps.get(i);  }
+
+  public double getConstraintValue(int i)
+  {  return constraintVals.get(i);  }
+
+
+  public String toString()
+  {
+    if (isGoalSeek)
+      return "goal seek " + objectiveCell + " == " + target + " by " + variableCells[0];
+    else
+      return (isMaximize ? "maximize " : "minimize ") + objectiveCell + 
+             " by " + Arrays.toString(variableCells);
+  }
+
+}  // end of SolverRequest class
@@ -0,0 +1,69 @@
+// SolverResult.java
+
+/* The outcome of a SolverRequest run by a SolverRunner. For a goal
+   seek, the solution holds the variable's value, and the objective
+   value is the divergence from the target.
+*/
+
+package utils;
+
+import java.util.*;
+
+
+
+public class SolverResult
+{
+  private final SolverRequest request;
+  private final boolean isSuccess;
+  private final double objectiveValue;
+  private final double[] solution;
+  private final String error;     // null if none
+  private final long time;        // ms
+
+
+
+  public SolverResult(SolverRequest request, boolean isSuccess, double objectiveValue,
+                                    double[] solution, String error, long time)
+  {
+    this.request = request;
+    this.isSuccess = isSuccess;
+    this.objectiveValue = objectiveValue;
+    this.solution = solution;
+    this.error = error;
+    this.time = time;
+  }
+
+
+  public static SolverResult failed(SolverRequest request, String error, long time)
+  {  return new SolverResult(request, false, Double.NaN, null, error, time);  }
+
+
+
+  public SolverRequest getRequest()
+  {  return request;  }
+
+  public boolean isSuccess()
+  {  return isSuccess;  }
+
+  public double getObjectiveValue()
+  {  return objectiveValue;  }
+
+  public double[] getSolution()
+  {  return (solution == null) ? null : solution.clone();  }
+
+  public String getError()
+  {  return error;  }
+
+  public long getTime()
+  {  return time;  }
+
+
+  public String toString()
+  {
+    if (!isSuccess)
+      return request + ": FAILED" + ((error == null) ? "" : (" (" + error + ")"));
+    return request + ": " + objectiveValue + " at " + Arrays.toString(solution) + 
+           " (" + time + " ms)";
+  }
+
+}  // end of SolverResult class
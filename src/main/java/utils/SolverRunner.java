@@ -0,0 +1,258 @@
+// SolverRunner.java
+
+/* Runs many goal seeks and solver optimizations at once, using the
+   warm (already loaded) workbook copies of a CalcModel, one per office
+   in its pool. Nothing is reloaded between jobs: the cells a job may
+   change (its variable cells, and the model's input cells if the job
+   sets them) are saved before the job, and restored after it.
+
+   Automatic calculation (off in CalcModel's copies) is turned on 
+   while a job runs, since the solvers recalculate as they go.
+
+   A job that takes longer than the timeout has its office killed;
+   the job fails (it is not retried), and the office is restarted and
+   reloads the workbook when it is next leased.
+
+   Typical use:
+     SolverRunner runner = new SolverRunner(model, 30000);
+     List<SolverResult> results = runner.runAll(requests);
+     runner.shutdown();
+*/
+
+package utils;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class SolverRunner
+{
+  private final CalcModel model;
+  private final long jobTimeout;     // ms; 0 means no timeout
+  private final ScheduledExecutorService watchdog;
+
+  private final LatencyStats stats = new LatencyStats();
+  private final AtomicLong numTimeouts = new AtomicLong(0);
+
+
+
+  public SolverRunner(CalcModel model, long jobTimeout)
+  {
+    this.model = model;
+    this.jobTimeout = jobTimeout;
+    watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                 public Thread newThread(Runnable r)
+                 { Thread t = new Thread(r, "SolverRunner watchdog");
+                   t.setDaemon(true);
+                   return t;
+                 }
+               });
+  }  // end of SolverRunner()
+
+
+
+  public SolverResult run(SolverRequest req)
+  // run the request on the next idle office
+  {
+    long startTime = System.currentTimeMillis();
+    final AtomicBoolean isTimedOut = new AtomicBoolean(false);
+    SolverResult res = model.getPool().run(makeJob(req, isTimedOut), false);
+    long time = System.currentTimeMillis() - startTime;
+    if (res == null)
+      res = SolverResult.failed(req, isTimedOut.get() ? "timed out" : "office failed", time);
+    stats.record(req.isGoalSeek() ? "goal seek" : "solve", time, res.isSuccess());
+    return res;
+  }  // end of run()
+
+
+
+  public List<SolverResult> runAll(List<SolverRequest> reqs)
+  /* run the requests with as many at once as there are offices;
+     results are in request order */
+  {
+    ExecutorService exec = Executors.newFixedThreadPool( Math.max(1, model.getPool().size()));
+    ArrayList<Future<SolverResult>> futures = new ArrayList<Future<SolverResult>>();
+    ArrayList<SolverResult> results = new ArrayList<SolverResult>();
+    try {
+      for (final SolverRequest req : reqs) {
+        futures.add( exec.submit(new Callable<SolverResult>() {
+          public SolverResult call()
+          {  return run(req);  }
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add( futures.get(i).get());
+        }
+        catch (ExecutionException e) {
+          results.add( SolverResult.failed(reqs.get(i), "" + e.getCause(), 0));
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      exec.shutdownNow();
+    }
+    return results;
+  }  // end of runAll()
+
+
+
+  private OfficeJob<SolverResult> makeJob(final SolverRequest req, 
+                                          final AtomicBoolean isTimedOut)
+  // kill the job's office if the job takes too long
+  {
+    return new OfficeJob<SolverResult>() {
+      public SolverResult run(final OfficeConnection conn)
+      {
+        ScheduledFuture<?> timer = null;
+        if (jobTimeout > 0) {
+          timer = watchdog.schedule(new Runnable() {
+            public void run()
+            {
+              System.out.println(conn.getName() + ": timed out running " + req);
+              isTimedOut.set(true);
+              numTimeouts.incrementAndGet();
+              Lo.killOffice(conn.getProcess());
+            }
+          }, jobTimeout, TimeUnit.MILLISECONDS);
+        }
+        try {
+          return solve(conn, req);
+        }
+        finally {
+          if (timer != null)
+            timer.cancel(false);
+        }
+      }
+    };
+  }  // end of makeJob()
+
+
+
+  private SolverResult solve(OfficeConnection conn, SolverRequest req)
+  {
+    long startTime = System.currentTimeMillis();
+    CalcModel.LoadedModel lm = model.getModel(conn);
+    if (lm == null)
+      return SolverResult.failed(req, "model not loaded", 0);
+    XSpreadsheetDocument doc = lm.doc;
+
+    String[] varNames = req.getVariableCells();
+    XCell[] varCells = new XCell[varNames.length];
+    for (int i = 0; i < varNames.length; i++) {
+      varCells[i] = CalcModel.findCell(doc, varNames[i]);
+      if (varCells[i] == null)
+        return SolverResult.failed(req, "no cell " + varNames[i], 0);
+    }
+    XCell objCell = CalcModel.findCell(doc, req.getObjectiveCell());
+    if (objCell == null)
+      return SolverResult.failed(req, "no cell " + req.getObjectiveCell(), 0);
+
+    // save the cells the job may change
+    ArrayList<XCell> changed = new ArrayList<XCell>(Arrays.asList(varCells));
+    if (req.getInputs() != null)
+      changed.addAll(Arrays.asList(lm.inCells));
+    String[] saved = new String[changed.size()];
+    for (int i = 0; i < saved.length; i++)
+      saved[i] = changed.get(i).getFormula();
+
+    lm.calc.enableAutomaticCalculation(true);
+    try {
+      if (req.getInputs() != null)
+        lm.setInputs(req.getInputs());
+      if (req.isGoalSeek())
+        return goalSeek(doc, req, objCell, varCells[0], startTime);
+      else
+        return optimize(doc, req, objCell, varCells, startTime);
+    }
+    finally {
+      for (int i = 0; i < saved.length; i++)
+        changed.get(i).setFormula(saved[i]);
+      lm.calc.enableAutomaticCalculation(false);
+    }
+  }  // end of solve()
+
+
+
+  private SolverResult goalSeek(XSpreadsheetDocument doc, SolverRequest req,
+                           XCell formulaCell, XCell varCell, long startTime)
+  {
+    if (Double.isNaN(req.getTarget()) || Double.isInfinite(req.getTarget()))
+      return SolverResult.failed(req, "target is not a number", 0);
+    String target = BigDecimal.valueOf(req.getTarget()).toPlainString();
+          // e.g. "10000000000", not "1.0E10"
+    XGoalSeek gs = Lo.qi(XGoalSeek.class, doc);
+    GoalResult gr = gs.seekGoal(Calc.getCellAddress(formulaCell), 
+                                Calc.getCellAddress(varCell), target);
+    long time = System.currentTimeMillis() - startTime;
+    boolean isSuccess = (Math.abs(gr.Divergence) <= req.getAllowedDivergence());
+    return new SolverResult(req, isSuccess, gr.Divergence, 
+                                     new double[]{ gr.Result }, null, time);
+  }  // end of goalSeek()
+
+
+
+  private SolverResult optimize(XSpreadsheetDocument doc, SolverRequest req,
+                       XCell objCell, XCell[] varCells, long startTime)
+  {
+    XSolver solver = Lo.createInstanceMCF(XSolver.class, req.getSolverName());
+    if (solver == null)
+      return SolverResult.failed(req, "no solver " + req.getSolverName(), 0);
+
+    solver.setDocument(doc);
+    solver.setObjective( Calc.getCellAddress(objCell));
+    CellAddress[] vars = new CellAddress[varCells.length];
+    for (int i = 0; i < vars.length; i++)
+      vars[i] = Calc.getCellAddress(varCells[i]);
+    solver.setVariables(vars);
+
+    SolverConstraint[] constraints = new SolverConstraint[req.getConstraintCount()];
+    for (int i = 0; i < constraints.length; i++) {
+      XCell cell = CalcModel.findCell(doc, req.getConstraintCell(i));
+      if (cell == null)
+        return SolverResult.failed(req, "no cell " + req.getConstraintCell(i), 0);
+      constraints[i] = Calc.makeConstraint(Calc.getCellAddress(cell), 
+                             req.getConstraintOp(i), req.getConstraintValue(i));
+    }
+    solver.setConstraints(constraints);
+    solver.setMaximize(req.isMaximize());
+    for (Map.Entry<String, Object> e : req.getSolverProperties().entrySet())
+      Props.setProperty(solver, e.getKey(), e.getValue());
+
+    solver.solve();
+    long time = System.currentTimeMillis() - startTime;
+    if (!solver.getSuccess())
+      return SolverResult.failed(req, "no solution", time);
+    return new SolverResult(req, true, solver.getResultValue(), 
+                                       solver.getSolution(), null, time);
+  }  // end of optimize()
+
+
+
+  public long getTimeoutCount()
+  {  return numTimeouts.get();  }
+
+  public LatencyStats getStats()
+  {  return stats;  }
+
+
+  public void printReport()
+  {
+    System.out.println("Solver runner: timeouts: " + numTimeouts.get());
+    stats.printReport();
+  }
+
+
+  public void shutdown()
+  {  watchdog.shutdownNow();  }
+
+}  // end of SolverRunner class
@@ -0,0 +1,82 @@
+// StringColumn.java
+
+/* A dictionary-encoded column of strings, as returned by 
+   Calc.getStringColumn(). Each distinct string is stored once in the
+   dictionary, and each row holds the dictionary index (code) of its
+   string, or EMPTY for an empty cell. Columns with many repeated values
+   (e.g. categories, country names) take much less memory this way, and
+   can be grouped by comparing ints.
+*/
+
+package utils;
+
+import java.util.*;
+
+
+
+public class StringColumn
+{
+  public static final int EMPTY = -1;
+
+  private final ArrayList<String> dict = new ArrayList<String>();
+  private final HashMap<String, Integer> codeMap = new HashMap<String, Integer>();
+  private int[] codes;
+  private int size = 0;
+
+
+
+  public StringColumn(int capacity)
+  {  codes = new int[Math.max(capacity, 16)];  }
+
+
+
+  public void add(String s)
+  // append s (null or "" is stored as EMPTY)
+  {
+    if (size == codes.length)
+      codes = Arrays.copyOf(codes, size*2);
+    codes[size++] = encode(s);
+  }  // end of add()
+
+
+
+  public int encode(String s)
+  // return the code for s, adding it to the dictionary if necessary
+  {
+    if ((s == null) || (s.length() == 0))
+      return EMPTY;
+    Integer code = codeMap.get(s);
+    if (code == null) {
+      code = dict.size();
+      dict.add(s);
+      codeMap.put(s, code);
+    }
+    return code;
+  }  // end of encode()
+
+
+
+  public int size()
+  {  return size;  }
+
+  public int getCode(int i)
+  {  return codes[i];  }
+
+  public String get(int i)
+  {  int code = codes[i];
+     return (code == EMPTY) ? null : dict.get(code);
+  }
+
+  public int getDictionarySize()
+  {  return dict.size();  }
+
+  public String decode(int code)
+  {  return (code == EMPTY) ? null : dict.get(code);  }
+
+  public int[] getCodes()
+  {  return Arrays.copyOf(codes, size);  }
+
+  public String[] getDictionary()
+  {  return dict.toArray(new String[dict.size()]);  }
+
+}  // end of StringColumn class
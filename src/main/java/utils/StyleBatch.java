@@ -0,0 +1,300 @@
+// StyleBatch.java
+
+/* Collects style changes (cell styles and cell properties) for many
+   cells or ranges, and applies them with a few remote calls. Targets
+   are grouped by their property bundle (the same names and values),
+   each group's ranges are put into one SheetCellRanges container, and
+   the bundle is set on the container with one
+   XMultiPropertySet.setPropertyValues() call.
+
+   So highlighting 10,000 scattered cells in one color takes a handful
+   of calls instead of 20,000 (a getCellRangeByPosition() and a
+   setPropertyValue() per cell).
+
+   Property values are grouped using equals(), so UNO structs (e.g.
+   a TableBorder2) are only grouped if the same object is used.
+
+   Changes take effect in the order they were made: a target is only
+   added to its bundle's group if it does not overlap a group that is
+   set after that one. Otherwise a new round of groups is started, 
+   which apply() sets after the earlier rounds.
+
+   Typical use:
+     StyleBatch batch = new StyleBatch(doc);
+     for (...)
+       batch.setProperty(sheet, col, row, "CellBackColor", Calc.LIGHT_BLUE);
+     batch.apply();
+     batch.printStats();
+*/
+
+package utils;
+
+import java.util.*;
+
+import com.sun.star.beans.*;
+import com.sun.star.lang.*;
+import com.sun.star.sheet.*;
+import com.sun.star.table.*;
+
+
+
+public class StyleBatch
+{
+  private final XSpreadsheetDocument doc;
+  private final ArrayList<LinkedHashMap<Bundle, Group>> rounds = 
+                   new ArrayList<LinkedHashMap<Bundle, Group>>();
+                   // each round's groups are set in insertion order
+  private final IdentityHashMap<XSpreadsheet, Short> sheetIndices = 
+                                     new IdentityHashMap<XSpreadsheet, Short>();
+                   // each sheet's index is looked up once
+
+  private long numTargets = 0;
+  private long numPropSets = 0;     // setPropertyValue() calls if done one by one
+  private long numCalls = 0;        // remote calls made by apply()
+
+
+
+  public StyleBatch(XSpreadsheetDocument doc)
+  {  this.doc = doc;  }
+
+
+
+  // ---------------------------- adding --------------------------------
+
+
+  public void setStyle(XSpreadsheet sheet, int column, int row, String styleName)
+  {  setProperty(sheet, column, row, "CellStyle", styleName);  }
+
+  public void setStyle(XSpreadsheet sheet, String rangeName, String styleName)
+  {  setProperties( Calc.getAddress(sheet, rangeName), 
+                    new String[]{"CellStyle"}, new Object[]{styleName});  }
+
+
+  public void setProperty(XSpreadsheet sheet, int column, int row, 
+                                          String propName, Object value)
+  {  setProperties( makeAddress(sheet, column, row, column, row), 
+                    new String[]{propName}, new Object[]{value});  }
+
+
+  public void setProperties(XSpreadsheet sheet, int x1, int y1, int x2, int y2,
+                                             String[] propNames, Object[] values)
+  {  setProperties( makeAddress(sheet, x1, y1, x2, y2), propNames, values);  }
+
+
+
+  public void setProperties(CellRangeAddress addr, String[] propNames, Object[] values)
+  // the address's Sheet field says which sheet is changed
+  {
+    if ((propNames == null) || (values == null) || (propNames.length != values.length)) {
+      System.out.println("Property names and values do not match");
+      return;
+    }
+    Bundle bundle = new Bundle(propNames, values);
+    LinkedHashMap<Bundle, Group> round = rounds.isEmpty() ? null : rounds.get(rounds.size()-1);
+    Group group = (round == null) ? null : round.get(bundle);
+    if ((round == null) || ((group != null) && overlapsLater(round, bundle, addr))) {
+      // joining the group would apply this change before a later one
+      round = new LinkedHashMap<Bundle, Group>();
+      rounds.add(round);
+      group = null;
+    }
+    if (group == null) {
+      group = new Group();
+      round.put(bundle, group);
+    }
+    group.add(addr);
+    numTargets++;
+    numPropSets += propNames.length;
+  }  // end of setProperties()
+
+
+
+  private static boolean overlapsLater(LinkedHashMap<Bundle, Group> round, 
+                                       Bundle bundle, CellRangeAddress addr)
+  // does addr overlap a group that comes after bundle's group?
+  {
+    boolean isLater = false;
+    for (Map.Entry<Bundle, Group> e : round.entrySet()) {
+      if (isLater && e.getValue().overlaps(addr))
+        return true;
+      if (e.getKey().equals(bundle))
+        isLater = true;
+    }
+    return false;
+  }  // end of overlapsLater()
+
+
+
+  private CellRangeAddress makeAddress(XSpreadsheet sheet, int x1, int y1, int x2, int y2)
+  {
+    CellRangeAddress addr = new CellRangeAddress();
+    addr.Sheet = getSheetIndex(sheet);
+    addr.StartColumn = x1;
+    addr.StartRow = y1;
+    addr.EndColumn = x2;
+    addr.EndRow = y2;
+    return addr;
+  }  // end of makeAddress()
+
+
+
+  private short getSheetIndex(XSpreadsheet sheet)
+  {
+    Short idx = sheetIndices.get(sheet);
+    if (idx == null) {
+      idx = Calc.getAddress( Lo.qi(XCellRange.class, sheet)).Sheet;
+      sheetIndices.put(sheet, idx);
+    }
+    return idx;
+  }  // end of getSheetIndex()
+
+
+
+  // ---------------------------- applying --------------------------------
+
+
+  public void apply()
+  // set each group's bundle once on a container of all its ranges
+  {
+    XMultiServiceFactory msf = Lo.qi(XMultiServiceFactory.class, doc);
+    for (LinkedHashMap<Bundle, Group> round : rounds)
+      for (Map.Entry<Bundle, Group> e : round.entrySet())
+        applyGroup(msf, e.getKey(), e.getValue().addrs);
+    rounds.clear();
+  }  // end of apply()
+
+
+
+  private void applyGroup(XMultiServiceFactory msf, Bundle bundle, 
+                                         ArrayList<CellRangeAddress> addrs)
+  {
+    XSheetCellRangeContainer ranges = Lo.createInstanceMSF(
+              XSheetCellRangeContainer.class, "com.sun.star.sheet.SheetCellRanges", msf);
+    numCalls++;
+    if (ranges == null) {
+      System.out.println("Could not create a cell ranges container");
+      return;
+    }
+    ranges.addRangeAddresses(addrs.toArray(new CellRangeAddress[addrs.size()]), true);
+    numCalls++;
+
+    XMultiPropertySet mps = Lo.qi(XMultiPropertySet.class, ranges);
+    try {
+      mps.setPropertyValues(bundle.names, bundle.values);
+      numCalls++;
+    }
+    catch(java.lang.Exception ex)
+    {  System.out.println("Could not set " + Arrays.toString(bundle.names) + ": " + ex);  }
+  }  // end of applyGroup()
+
+
+
+  public int getBundleCount()
+  // the number of groups waiting to be applied
+  {
+    int n = 0;
+    for (LinkedHashMap<Bundle, Group> round : rounds)
+      n += round.size();
+    return n;
+  }
+
+  public long getTargetCount()
+  {  return numTargets;  }
+
+  public long getCallCount()
+  {  return numCalls;  }
+
+  public long getCallsSaved()
+  // compared with a range lookup and a setPropertyValue() per target property
+  {  return numTargets + numPropSets - numCalls;  }
+
+
+  public void printStats()
+  {
+    System.out.println("Style batch: targets: " + numTargets + 
+                       "; remote calls: " + numCalls +
+                       "; calls saved: " + getCallsSaved());
+  }
+
+
+
+  // ---------------------------------------------------------------------
+
+
+  private static class Group
+  // the ranges of one bundle in one round, and their bounding box
+  {
+    final ArrayList<CellRangeAddress> addrs = new ArrayList<CellRangeAddress>();
+    int minSheet = Integer.MAX_VALUE, maxSheet = -1;
+    int minCol = Integer.MAX_VALUE, maxCol = -1;
+    int minRow = Integer.MAX_VALUE, maxRow = -1;
+
+    void add(CellRangeAddress a)
+    {
+      addrs.add(a);
+      minSheet = Math.min(minSheet, a.Sheet);
+      maxSheet = Math.max(maxSheet, a.Sheet);
+      minCol = Math.min(minCol, a.StartColumn);
+      maxCol = Math.max(maxCol, a.EndColumn);
+      minRow = Math.min(minRow, a.StartRow);
+      maxRow = Math.max(maxRow, a.EndRow);
+    }
+
+    boolean overlaps(CellRangeAddress a)
+    {
+      if ((a.Sheet < minSheet) || (a.Sheet > maxSheet) ||
+          (a.EndColumn < minCol) || (a.StartColumn > maxCol) ||
+          (a.EndRow < minRow) || (a.StartRow > maxRow))
+        return false;     // outside the bounding box
+      for (CellRangeAddress b : addrs)
+        if ((a.Sheet == b.Sheet) && 
+            (a.StartColumn <= b.EndColumn) && (b.StartColumn <= a.EndColumn) &&
+            (a.StartRow <= b.EndRow) && (b.StartRow <= a.EndRow))
+          return true;
+      return false;
+    }  // end of overlaps()
+  }  // end of Group class
+
+
+
+  private static class Bundle
+  /* property names and values, sorted by name as required by
+     setPropertyValues() */
+  {
+    final String[] names;
+    final Object[] values;
+    final int hash;
+
+    Bundle(String[] propNames, Object[] vals)
+    {
+      Integer[] order = new Integer[propNames.length];
+      for (int i = 0; i < order.length; i++)
+        order[i] = i;
+      final String[] pnms = propNames;
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b)
+        {  return pnms[a].compareTo(pnms[b]);  }
+      });
+
+      names = new String[propNames.length];
+      values = new Object[propNames.length];
+      for (int i = 0; i < order.length; i++) {
+        names[i] = propNames[order[i]];
+        values[i] = vals[order[i]];
+      }
+      hash = 31*Arrays.hashCode(names) + Arrays.hashCode(values);
+    }  // end of Bundle()
+
+    public int hashCode()
+    {  return hash;  }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Bundle))
+        return false;
+      Bundle b = (Bundle) o;
+      return Arrays.equals(names, b.names) && Arrays.equals(values, b.values);
+    }
+  }  // end of Bundle class
+
+}  // end of StyleBatch class
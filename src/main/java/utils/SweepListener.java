@@ -0,0 +1,15 @@
+// SweepListener.java
+
+/* Interface used by objects receiving the results of a ScenarioSweep.
+   result() is called from the sweep's worker threads (one at a time),
+   in the order the evaluations finish; runIdx is the parameter set's
+   position in the sweep. outputs is null if the evaluation failed.
+*/
+
+package utils;
+
+
+public interface SweepListener
+{
+  void result(long runIdx, double[] inputs, double[] outputs);
+}